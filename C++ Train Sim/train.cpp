@@ -51,16 +51,17 @@ int main( int argc, char* argv[] )
     // Generate INITIAL arrival, unload, hogout times
     TrainSchedule ts = getTrainValues();
     // Create a new train
-    Train *trainPtr = new Train(nextTrainId++, nextCrewId++, 0, ts.remainingCrewHours, ts.unloadTime );
+    // (Pre-made arrival times are absolute, generated ones are inter-arrival times)
+    double firstArrival = premade ? ts.arrivalTime : 0.0;
+    Train *trainPtr = new Train(nextTrainId++, nextCrewId++, firstArrival, ts.remainingCrewHours, ts.unloadTime );
     // Schedule when the train will arrive and when the crew will hog out
-    schedule(arrival, trainPtr, globalTime);
+    schedule(arrival, trainPtr, firstArrival);
     /* Didn't schedule hogout because unload time is far less then crew hogout time */
     // Each arrival event should generate a new arrival, unless end conditions are met.
     // After that event queue depletion should terminate simulation or when there are no more trains to schedule
-    while( (!premade && !eventQ.empty()) || (premade && !trainSchedule.empty()) )
+    while( !eventQ.empty() )
     {
         checkEvent();
-        updateDockTimes();
     }
     cout << "Time " << globalTime << ": simulation ended" << endl;
     // Simulation terminated so print statistics 
@@ -87,6 +88,8 @@ void checkEvent()
     else // otherwise perform action for the event by calling the event function
     {
         globalTime = e->eventTime;
+        // The dock was in its old status up to now
+        updateDockTimes();
         e->function(e->train);
     }
     // Event deleted
@@ -247,9 +250,10 @@ void arrival( Train *currentTrain )
         // Generate arrival, unload, hogout times
         TrainSchedule ts = getTrainValues();
         // Create a new train
-        Train *trainPtr = new Train(nextTrainId++, nextCrewId++, ts.arrivalTime + globalTime, ts.remainingCrewHours, ts.unloadTime );
+        double arrivalTime = premade ? ts.arrivalTime : ts.arrivalTime + globalTime;
+        Train *trainPtr = new Train(nextTrainId++, nextCrewId++, arrivalTime, ts.remainingCrewHours, ts.unloadTime );
         // Schedule when the train will arrive
-        schedule(arrival, trainPtr, ts.arrivalTime + globalTime);
+        schedule(arrival, trainPtr, arrivalTime);
     }
     // For the current train arrival, jump queue if it is empty and the dock is not busy
     if( trainQ.empty() && dock.dockStatus == IDLE )
@@ -270,8 +274,9 @@ void arrival( Train *currentTrain )
 void departure( Train *train )
 {
     // If the train is hogged out then it cannot depart.
-    // There was another later departure time scheduled for the train when its crew hogged out
-    if( train->crewStatus == HOGGED_OUT )
+    // There was another later departure time scheduled for the train when its crew hogged out,
+    // which may be reached after the new crew has arrived, so only the latest one counts
+    if( train->crewStatus == HOGGED_OUT || globalTime != train->departureTime )
         return;
     // Print State
     cout << fixed << setprecision(2) << "Time " << globalTime << ": train " 
@@ -363,7 +368,8 @@ void newCrew( Train *train )
         // Dock status is no longer idle with train but is back to busy
         dock.dockStatus = BUSY;
         // This will update when the trains departure time (by sending new event)
-        schedule( departure, train, globalTime+train->unloadTime );
+        train->departureTime = globalTime + train->unloadTime;
+        schedule( departure, train, train->departureTime );
     } // Otherwise train was somewhere in the queue behind another train
     // Schedule the new crews hogout time 
     // Don't schedule next hogout when train is in dock because train will depart by then
@@ -392,5 +398,6 @@ void startService( Train *train )
     // Dock is busy unloading this train
     dock.dockStatus = BUSY;
     // The train is scheduled to depart after train is done unloading 
-    schedule( departure, train, train->unloadTime + globalTime );
+    train->departureTime = train->unloadTime + globalTime;
+    schedule( departure, train, train->departureTime );
 }
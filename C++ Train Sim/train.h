@@ -60,6 +60,7 @@ class Train
     double crewArrivalTime; // The time the initial or new crew arrived at
     double timeTillHogout;  // The time left before the crew has to hog out 
     double unloadTime;      // Time it will take the train to unload at the dock
+    double departureTime;   // The time of the latest departure scheduled for the train
     tStat trainStatus;      // The status the train is in
     cStat crewStatus;       // The status the crew is in 
 
@@ -72,6 +73,7 @@ class Train
         arrivalTime = endQTime = endDockTime = crewArrivalTime = aTime;
         timeTillHogout = hTime;
         unloadTime = uTime;
+        departureTime = -1.0;
         trainStatus = ARRIVED;
         crewStatus = ON_CLOCK;
     }
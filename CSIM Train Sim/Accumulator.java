@@ -0,0 +1,66 @@
+package com.trainsim;
+
+// Count, sum, mean, variance, min and max of the recorded values, kept in
+// constant memory. The variance uses Welford's update, and merging uses
+// Chan's formula, so accumulators from separate replications or time
+// windows combine as if every value had been recorded into one.
+class Accumulator implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private long count = 0;
+    private double sum = 0.0;
+    private double welford = 0.0; // Running mean of Welford's update
+    private double m2 = 0.0; // Sum of squared distances from the mean
+    private double min = 0.0;
+    private double max = 0.0;
+
+    void record( double x ) {
+        if( count == 0 || x < min )
+            min = x;
+        if( count == 0 || x > max )
+            max = x;
+        count++;
+        sum += x;
+        double d = x - welford;
+        welford += d / count;
+        m2 += d * (x - welford);
+    }
+
+    // Add every value recorded into 'o' to this one
+    void merge( Accumulator o ) {
+        if( o.count == 0 ) return;
+        if( count == 0 || o.min < min )
+            min = o.min;
+        if( count == 0 || o.max > max )
+            max = o.max;
+        long n = count + o.count;
+        double d = o.welford - welford;
+        welford += d * o.count / n;
+        m2 += o.m2 + d * d * ((double) count * o.count / n);
+        sum += o.sum;
+        count = n;
+    }
+
+    long count() {
+        return count;
+    }
+    double sum() {
+        return sum;
+    }
+    // Sum over count, like a CSIM Table, 0 if nothing was recorded
+    double mean() {
+        return count > 0 ? sum / count : 0.0;
+    }
+    // Sample variance, 0 with less than 2 values
+    double variance() {
+        return count > 1 ? m2 / (count - 1) : 0.0;
+    }
+    double stddev() {
+        return Math.sqrt( variance() );
+    }
+    double min() {
+        return min;
+    }
+    double max() {
+        return max;
+    }
+}
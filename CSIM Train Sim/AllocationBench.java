@@ -0,0 +1,107 @@
+package com.trainsim;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+// Measures the bytes allocated per train by the train value pipeline, for
+// the old String round trip and for the primitive TrainValues batches
+// Usage: AllocationBench
+public class AllocationBench {
+    private static final int TRAINS = 1000000; // Trains per measurement
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static double sink; // Keeps the JIT from dropping the work
+
+    public static void main( String[] args ) throws IOException {
+        TrainSimUtil gen = new TrainSimUtil( 10.0, 3.5, 4.5, 6.0, 11.0, 2.5, 3.5, 1L );
+        String schedule = writeSchedule( gen, TRAINS );
+        // Warm up both paths before measuring
+        generatedStrings( gen, TRAINS );
+        generatedValues( gen, TRAINS );
+        fileStrings( schedule, TRAINS );
+        fileValues( schedule, TRAINS );
+        System.out.println( "Bytes allocated per train" );
+        System.out.println( "-------------------------" );
+        System.out.printf( "Generated, String[] round trip: %8.1f\n", measure( 0, gen, schedule ) );
+        System.out.printf( "Generated, TrainValues:         %8.1f\n", measure( 1, gen, schedule ) );
+        System.out.printf( "File, readLine + split:         %8.1f\n", measure( 2, gen, schedule ) );
+        System.out.printf( "File, TrainValues:              %8.1f\n", measure( 3, gen, schedule ) );
+    }
+
+    private static double measure( int path, TrainSimUtil gen, String schedule ) throws IOException {
+        long before = threads.getCurrentThreadAllocatedBytes();
+        int n;
+        if( path == 0 ) n = generatedStrings( gen, TRAINS );
+        else if( path == 1 ) n = generatedValues( gen, TRAINS );
+        else if( path == 2 ) n = fileStrings( schedule, TRAINS );
+        else n = fileValues( schedule, TRAINS );
+        return (double) (threads.getCurrentThreadAllocatedBytes() - before) / n;
+    }
+
+    // Write a schedule file of 'trains' generated trains, so the file paths
+    // are measured on one long read like a replayed historical schedule
+    private static String writeSchedule( TrainSimUtil u, int trains ) throws IOException {
+        File f = File.createTempFile( "schedule", ".txt" );
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter( new BufferedWriter( new FileWriter( f ) ) );
+        double clock = 0.0;
+        for( int i = 0; i < trains; ++i ) {
+            u.nextTrain();
+            clock += u.arrival();
+            pw.println( clock + " " + u.unload() + " " + u.crewHours() );
+        }
+        pw.close();
+        return f.getPath();
+    }
+
+    // The old generator: format each value and parse it back in Train
+    private static int generatedStrings( TrainSimUtil u, int trains ) {
+        for( int i = 0; i < trains; ++i ) {
+            String[] tokens = new String[3];
+            tokens[0] = Double.toString( u.randArr.exponential( u.arrRate ) );
+            tokens[1] = Double.toString( u.randUn.uniform( u.unTimeA, u.unTimeB ) );
+            tokens[2] = Double.toString( u.randRemain.uniform( u.crewWorkTimeA, u.crewWorkTimeB ) );
+            sink += Double.parseDouble( tokens[0] ) + Double.parseDouble( tokens[1] )
+                + Double.parseDouble( tokens[2] );
+        }
+        return trains;
+    }
+
+    private static int generatedValues( TrainSimUtil u, int trains ) throws IOException {
+        for( int i = 0; i < trains; ++i ) {
+            u.nextTrain();
+            sink += u.arrival() + u.unload() + u.crewHours();
+        }
+        return trains;
+    }
+
+    // The old file reader: one String per line and one per value
+    private static int fileStrings( String schedule, int trains ) throws IOException {
+        int n = 0;
+        while( n < trains ) {
+            BufferedReader br = new BufferedReader( new FileReader( schedule ) );
+            String line;
+            while( n < trains && (line = br.readLine()) != null ) {
+                String[] tokens = line.split(" ");
+                sink += Double.parseDouble( tokens[0] ) + Double.parseDouble( tokens[1] )
+                    + Double.parseDouble( tokens[2] );
+                n++;
+            }
+            br.close();
+        }
+        return n;
+    }
+
+    private static int fileValues( String schedule, int trains ) throws IOException {
+        int n = 0;
+        while( n < trains ) {
+            TrainSimUtil u = new TrainSimUtil( schedule, schedule );
+            while( n < trains && u.nextTrain() ) {
+                sink += u.arrival() + u.unload() + u.crewHours();
+                n++;
+            }
+            u.finalize();
+        }
+        return n;
+    }
+}
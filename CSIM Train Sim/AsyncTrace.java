@@ -0,0 +1,108 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Packs trace records into binary batches on the simulation thread and
+// renders them as text on a writer thread, so formatting and console I/O
+// happen off the simulation thread. Whatever stops the writer, a bad
+// record or a failed write, is kept and thrown by the next drain(), flush()
+// or close(), while the writer keeps handing batches back unwritten so the
+// simulation thread never waits on it
+class AsyncTrace extends EncodingTrace {
+    private static final int BATCHES = 4; // Batches in flight
+    private static final int BATCH_SIZE = 1 << 16; // Bytes per batch
+    private static final ByteBuffer STOP = ByteBuffer.allocate( 0 ); // Ends the writer
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>( BATCHES + 1 );
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>( BATCHES );
+    private final Thread writer; // Renders the full batches
+    private volatile Throwable failure = null; // What stopped the writer, null while it works
+
+    /*
+    Parameter(1): Stream the text lines go to
+    */
+    AsyncTrace( final PrintStream out ) {
+        super( ByteBuffer.allocate( BATCH_SIZE ) );
+        for( int i = 1; i < BATCHES; ++i )
+            free.add( ByteBuffer.allocate( BATCH_SIZE ) );
+        final TextTrace text = new TextTrace( out );
+        writer = new Thread( new Runnable() {
+            public void run() {
+                try {
+                    while( true ) {
+                        ByteBuffer b = full.take();
+                        if( b == STOP ) break;
+                        if( failure == null ) {
+                            try {
+                                TraceCodec.replay( b, text );
+                                text.flush();
+                                if( out.checkError() )
+                                    failure = new IOException( "Error writing the trace" );
+                            } catch( Throwable t ) {
+                                failure = t;
+                            }
+                        }
+                        b.clear();
+                        free.put( b );
+                    }
+                } catch( InterruptedException e ) {
+                    // Closed, nothing left to render
+                }
+            }
+        }, "Trace writer" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    // Throw what stopped the writer, if anything did
+    private void check() throws IOException {
+        Throwable t = failure;
+        if( t instanceof IOException )
+            throw new IOException( t.getMessage(), t );
+        if( t != null )
+            throw new IOException( "Trace writer failed: " + t, t );
+    }
+
+    // Hand the current batch to the writer and take a free one
+    protected void drain() throws IOException {
+        check();
+        try {
+            buf.flip();
+            full.put( buf );
+            buf = free.take();
+        } catch( InterruptedException e ) {
+            throw new InterruptedIOException( "Trace writer interrupted" );
+        }
+    }
+
+    // Once all batches are back in the free queue the writer is idle
+    public void flush() throws IOException {
+        drain();
+        try {
+            ByteBuffer[] all = new ByteBuffer[BATCHES - 1];
+            for( int i = 0; i < all.length; ++i )
+                all[i] = free.take();
+            for( ByteBuffer b : all )
+                free.put( b );
+        } catch( InterruptedException e ) {
+            throw new InterruptedIOException( "Trace writer interrupted" );
+        }
+        check();
+    }
+
+    // Stop the writer even if the flush failed
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            full.add( STOP );
+            try {
+                writer.join();
+            } catch( InterruptedException e ) {
+                throw new InterruptedIOException( "Trace writer interrupted" );
+            }
+        }
+    }
+}
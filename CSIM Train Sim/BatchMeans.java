@@ -0,0 +1,146 @@
+package com.trainsim;
+
+import java.io.PrintStream;
+
+// Steady-state estimate of the mean of one long run's observations, like
+// the time in system of the trains in departure order. The start of the
+// run is biased by the empty yard, so the warm-up found by MSER-5 is
+// deleted and the rest is split into a fixed number of batches, whose
+// means are close to independent once the batches are long enough. The
+// estimate is steady once the batch means are uncorrelated and their
+// confidence interval is as narrow as asked for; the run can stop there.
+class BatchMeans implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int GROUP = 5; // Observations averaged by MSER-5
+    private static final int BATCHES = 32; // Batches of the estimate
+    private static final int MIN_GROUPS = 4 * BATCHES; // Groups before the first check
+    private static final double MAX_LAG1 = 0.3; // Largest lag-1 correlation of batches
+    private final double confidence; // Level of the confidence interval
+    private final double relative; // Half-width asked for, relative to the mean
+    private double[] groups = new double[256]; // Mean of every GROUP observations
+    private int nGroups = 0;
+    private double partial = 0.0; // Sum of the observations of the open group
+    private int inPartial = 0;
+    private int nextCheck = MIN_GROUPS; // Groups at the next check
+    private boolean steady = false; // The estimate reached its precision
+    private int deleted = 0; // Groups deleted as warm-up
+    private int batchGroups = 0; // Groups per batch
+    private double mean = Double.NaN; // Mean of the batch means
+    private double halfWidth = Double.POSITIVE_INFINITY; // Of the interval of 'mean'
+    private double lag1 = Double.NaN; // Lag-1 correlation of the batch means
+
+    /*
+    Parameter(1): Level of the confidence interval, like .99
+    Parameter(2): Half-width of the interval relative to the mean, like .01
+    */
+    BatchMeans( double confidence, double relative ) {
+        this.confidence = confidence;
+        this.relative = relative;
+    }
+
+    // Add the next observation, ignored once the estimate is steady
+    void record( double x ) {
+        if( steady ) return;
+        partial += x;
+        if( ++inPartial < GROUP ) return;
+        if( nGroups == groups.length )
+            groups = java.util.Arrays.copyOf( groups, 2 * nGroups );
+        groups[nGroups++] = partial / GROUP;
+        partial = 0.0;
+        inPartial = 0;
+        // Check every 10% more groups, so the checks cost O(n) in all
+        if( nGroups >= nextCheck ) {
+            estimate();
+            steady = lag1 <= MAX_LAG1 && halfWidth <= relative * Math.abs( mean );
+            nextCheck = nGroups + Math.max( 1, nGroups / 10 );
+        }
+    }
+
+    // True once the run has reached steady state and the estimate is precise
+    boolean steady() {
+        return steady;
+    }
+
+    // Steady-state mean, from all the observations if it never got steady
+    double mean() {
+        if( !steady )
+            estimate();
+        return mean;
+    }
+
+    // Observations deleted as warm-up
+    long deleted() {
+        return (long) deleted * GROUP;
+    }
+
+    // Print the estimate and the warm-up it deleted
+    void print( PrintStream out ) {
+        double m = mean();
+        out.printf( "Warm-up deleted: %d trains\n", deleted() );
+        if( batchGroups == 0 ) {
+            out.println( "Steady-state time-in-system per train: too few trains" );
+            return;
+        }
+        out.printf( "Steady-state time-in-system per train: %.2fh +- %.2fh "
+            + "(%d batches of %d trains)\n", m, halfWidth, BATCHES, batchGroups * GROUP );
+        if( steady )
+            out.println( "Steady state reached, arrivals stopped early" );
+    }
+
+    // Find the warm-up and the batch means of what is left
+    private void estimate() {
+        deleted = warmup();
+        int left = nGroups - deleted;
+        batchGroups = left / BATCHES;
+        if( batchGroups == 0 ) {
+            mean = Double.NaN;
+            halfWidth = Double.POSITIVE_INFINITY;
+            lag1 = Double.NaN;
+            return;
+        }
+        // Drop the groups that do not fill a batch right after the warm-up
+        int first = nGroups - batchGroups * BATCHES;
+        double[] batch = new double[BATCHES];
+        Accumulator a = new Accumulator();
+        for( int b = 0; b < BATCHES; ++b ) {
+            double sum = 0.0;
+            for( int g = 0; g < batchGroups; ++g )
+                sum += groups[first + b * batchGroups + g];
+            batch[b] = sum / batchGroups;
+            a.record( batch[b] );
+        }
+        mean = a.mean();
+        halfWidth = StudentT.halfWidth( confidence, BATCHES, a.stddev() );
+        double cov = 0.0;
+        double var = 0.0;
+        for( int b = 0; b < BATCHES; ++b ) {
+            var += (batch[b] - mean) * (batch[b] - mean);
+            if( b > 0 )
+                cov += (batch[b] - mean) * (batch[b - 1] - mean);
+        }
+        lag1 = var > 0 ? cov / var : 0.0;
+    }
+
+    // MSER-5: the number of leading groups whose deletion leaves the
+    // smallest standard error of the mean of the rest, searched in the
+    // first half only, past which the run is too short to tell
+    private int warmup() {
+        double sum = 0.0;
+        double sumSq = 0.0;
+        int best = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        // Walk from the end so the sums of what is left are at hand
+        for( int d = nGroups - 1; d >= 0; --d ) {
+            sum += groups[d];
+            sumSq += groups[d] * groups[d];
+            int n = nGroups - d;
+            if( d > nGroups / 2 ) continue;
+            double score = (sumSq - sum * sum / n) / ((double) n * n);
+            if( score <= bestScore ) {
+                bestScore = score;
+                best = d;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,36 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Writes the trace to a file in the TraceCodec binary format, to be turned
+// back into text later by TraceDecoder
+class BinaryTrace extends EncodingTrace {
+    private final FileChannel channel; // The trace file
+
+    /*
+    Parameter(1): File location of the trace
+    */
+    BinaryTrace( String file ) throws IOException {
+        super( ByteBuffer.allocate( 1 << 16 ) );
+        channel = new FileOutputStream( file ).getChannel();
+        buf.putInt( TraceCodec.MAGIC ).putInt( TraceCodec.VERSION );
+    }
+
+    protected void drain() throws IOException {
+        buf.flip();
+        while( buf.hasRemaining() )
+            channel.write( buf );
+        buf.clear();
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    public void close() throws IOException {
+        drain();
+        channel.close();
+    }
+}
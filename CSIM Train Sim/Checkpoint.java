@@ -0,0 +1,156 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// What a run has done so far: its arguments and the statistics of every
+// simulation merged, from which the merge rebuilds its estimates, totals
+// and variance reduction. The merge keeps it as a journal that it appends
+// one simulation's record to as it merges it, so saving costs the same for
+// the last simulation as for the first, and -resume starts from it. A
+// record cut short by a kill is dropped on resume. Each running heap
+// engine simulation saves itself to "<file>.<id>" as it goes, written to a
+// temporary file and renamed over the last snapshot, so a run killed
+// mid-write leaves the previous snapshot whole. Every class saved keeps
+// one serialVersionUID, so a rebuild alone does not make snapshots
+// unreadable. VERSION is written ahead of each journal and snapshot and is
+// changed instead when what a saved class holds changes in meaning.
+class Checkpoint implements Closeable {
+    static final int VERSION = 4; // Of the journals and snapshot files, see above
+    final String[] args; // Arguments of the run, with its seed
+    final List<TrainStats> sims; // Statistics of the sims merged when it was read or started, in order
+    private DataOutputStream out = null; // Appends to the journal, null if read only
+
+    private Checkpoint( String[] args, List<TrainStats> sims ) {
+        this.args = args;
+        this.sims = sims;
+    }
+
+    // Start the journal 'file' of a run of 'args' that has merged 'sims'
+    // so far, replacing what was there, and return it to append to
+    static Checkpoint create( String file, String[] args, List<TrainStats> sims )
+            throws IOException {
+        File tmp = new File( file + ".tmp" );
+        DataOutputStream o = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ) );
+        try {
+            o.writeInt( VERSION );
+            record( o, args );
+            for( TrainStats s : sims )
+                record( o, s );
+        } finally {
+            o.close();
+        }
+        Files.move( tmp.toPath(), Paths.get( file ), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        Checkpoint c = new Checkpoint( args, sims );
+        c.out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( file, true ), 1 << 16 ) );
+        return c;
+    }
+
+    // Read back the journal in 'file'
+    static Checkpoint open( String file ) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+        try {
+            if( in.readInt() != VERSION )
+                throw new IOException( file + " is a checkpoint of another version" );
+            byte[] header = next( in );
+            if( header == null )
+                throw new IOException( file + " is cut short" );
+            String[] args = (String[]) fromBytes( header );
+            List<TrainStats> sims = new ArrayList<TrainStats>();
+            for( byte[] b = next( in ); b != null; b = next( in ) )
+                sims.add( (TrainStats) fromBytes( b ) );
+            return new Checkpoint( args, sims );
+        } finally {
+            in.close();
+        }
+    }
+
+    // Append the statistics of the next simulation merged
+    void add( TrainStats s ) throws IOException {
+        record( out, s );
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        if( out != null )
+            out.close();
+    }
+
+    // Write 'o' as one record: its length, then its snapshot
+    private static void record( DataOutputStream o, Serializable s ) throws IOException {
+        byte[] b = toBytes( s );
+        o.writeInt( b.length );
+        o.write( b );
+    }
+
+    // The next record of 'in', null at its end or at a record cut short
+    private static byte[] next( DataInputStream in ) throws IOException {
+        try {
+            int n = in.readInt();
+            if( n < 0 )
+                throw new IOException( "Not a checkpoint record" );
+            byte[] b = new byte[n];
+            in.readFully( b );
+            return b;
+        } catch( EOFException e ) {
+            return null;
+        }
+    }
+
+    // Replace 'file' with a snapshot of 'o'
+    static void write( Serializable o, String file ) throws IOException {
+        File tmp = new File( file + ".tmp" );
+        ObjectOutputStream out = new ObjectOutputStream(
+            new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ) );
+        try {
+            out.writeInt( VERSION );
+            out.writeObject( o );
+        } finally {
+            out.close();
+        }
+        Files.move( tmp.toPath(), Paths.get( file ), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    // A snapshot of 'o' in memory
+    static byte[] toBytes( Serializable o ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1 << 14 );
+        ObjectOutputStream out = new ObjectOutputStream( bytes );
+        out.writeObject( o );
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    // Read back a snapshot made by toBytes()
+    static Object fromBytes( byte[] snapshot ) throws IOException {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( snapshot ) );
+        try {
+            return in.readObject();
+        } catch( ClassNotFoundException e ) {
+            throw new IOException( "Not a snapshot of this build" );
+        }
+    }
+
+    // Read back the snapshot in 'file'
+    static Object read( String file ) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(
+            new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+        try {
+            if( in.readInt() != VERSION )
+                throw new IOException( file + " is a checkpoint of another version" );
+            return in.readObject();
+        } catch( ClassNotFoundException e ) {
+            throw new IOException( file + " is not a checkpoint of this build" );
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A schedule stored column by column as little-endian doubles. The file is
+// memory-mapped and every column is copied straight into the TrainValues
+// arrays, so a replay does no parsing at all. The file starts with MAGIC,
+// VERSION, the column count and the row count, followed by every row of
+// column 0, then every row of column 1, and so on.
+// Made from a text schedule by ScheduleConverter
+class ColumnarFile implements ValueReader {
+    static final int MAGIC = 0x5453434C; // "TSCL"
+    static final int VERSION = 1;
+    static final int HEADER = 16; // Bytes of MAGIC, VERSION, columns and rows
+    private final FileChannel channel; // The file being read
+    private final DoubleBuffer[] columns; // Mapped view of each column
+    private final int rows; // Rows in every column
+    private int row = 0; // Next row to read
+    private int column = 0; // Next column next() reads in 'row'
+
+    /*
+    Parameter(1): File location of the columnar schedule
+    */
+    ColumnarFile( String file ) throws IOException {
+        channel = new FileInputStream( file ).getChannel();
+        try {
+            ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+                Math.min( HEADER, channel.size() ) ).order( ByteOrder.LITTLE_ENDIAN );
+            if( header.remaining() < HEADER || header.getInt() != MAGIC )
+                throw new IOException( file + " is not a columnar schedule" );
+            int version = header.getInt();
+            if( version != VERSION )
+                throw new IOException( "Unsupported columnar schedule version " + version );
+            columns = new DoubleBuffer[header.getInt()];
+            rows = header.getInt();
+            if( channel.size() != HEADER + 8L * rows * columns.length )
+                throw new IOException( file + " is cut short" );
+            for( int c = 0; c < columns.length; ++c )
+                columns[c] = map( channel, FileChannel.MapMode.READ_ONLY, c, rows ).asReadOnlyBuffer();
+        } catch( IOException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Return true if 'file' starts like a columnar schedule
+    static boolean isColumnar( String file ) throws IOException {
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try {
+            return Integer.reverseBytes( in.readInt() ) == MAGIC;
+        } catch( EOFException e ) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    int columns() {
+        return columns.length;
+    }
+
+    // Values are returned row by row, like they are laid out in the text file
+    public double next() {
+        if( row >= rows ) return Double.NaN;
+        double value = columns[column].get( row );
+        if( ++column == columns.length ) {
+            column = 0;
+            row++;
+        }
+        return value;
+    }
+
+    // The position is the number of values read
+    public long position() {
+        return (long) row * columns.length + column;
+    }
+
+    public void seek( long position ) {
+        row = (int) (position / columns.length);
+        column = (int) (position % columns.length);
+    }
+
+    // Copy the next rows into 'dst', one array per column, as many as the
+    // arrays hold. Return the number of rows copied, 0 if the file is empty
+    int read( double[]... dst ) {
+        int n = Math.min( dst[0].length, rows - row );
+        for( int c = 0; c < dst.length; ++c ) {
+            columns[c].position( row );
+            columns[c].get( dst[c], 0, n );
+        }
+        row += n;
+        return n;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Map column 'c' of a file with 'rows' rows per column
+    private static DoubleBuffer map( FileChannel channel, FileChannel.MapMode mode,
+            int c, int rows ) throws IOException {
+        long bytes = 8L * rows;
+        if( bytes > Integer.MAX_VALUE )
+            throw new IOException( "Columns over 2GB are not supported" );
+        MappedByteBuffer b = channel.map( mode, HEADER + c * bytes, bytes );
+        return b.order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+    }
+
+    // Convert text file 'text', with the same number of values on every
+    // line, into columnar file 'bin'. Return the number of rows written
+    static int convert( String text, String bin ) throws IOException {
+        int nColumns = countColumns( text );
+        // First pass counts the values to size the file
+        long values = 0;
+        ValueReader in = new MappedNumberReader( text );
+        while( !Double.isNaN( in.next() ) )
+            values++;
+        in.close();
+        if( nColumns == 0 || values % nColumns != 0 )
+            throw new IOException( text + " does not have " + nColumns + " values on every line" );
+        if( values / nColumns > Integer.MAX_VALUE )
+            throw new IOException( text + " has too many lines" );
+        int rows = (int) (values / nColumns);
+        // Second pass puts each value in its column
+        RandomAccessFile out = new RandomAccessFile( bin, "rw" );
+        FileChannel channel = out.getChannel();
+        try {
+            out.setLength( HEADER + 8 * values );
+            channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER ).order( ByteOrder.LITTLE_ENDIAN )
+                .putInt( MAGIC ).putInt( VERSION ).putInt( nColumns ).putInt( rows );
+            DoubleBuffer[] cols = new DoubleBuffer[nColumns];
+            for( int c = 0; c < nColumns; ++c )
+                cols[c] = map( channel, FileChannel.MapMode.READ_WRITE, c, rows );
+            in = new MappedNumberReader( text );
+            for( int r = 0; r < rows; ++r )
+                for( int c = 0; c < nColumns; ++c )
+                    cols[c].put( in.next() );
+            in.close();
+        } finally {
+            channel.close();
+        }
+        return rows;
+    }
+
+    // Return the number of values on the first line of 'text'
+    private static int countColumns( String text ) throws IOException {
+        InputStream in = new BufferedInputStream( new FileInputStream( text ) );
+        try {
+            int n = 0;
+            boolean inValue = false;
+            int c;
+            while( (c = in.read()) >= 0 && c != '\n' ) {
+                boolean space = NumberReader.isSpace( (byte) c );
+                if( !space && !inValue ) n++;
+                inValue = !space;
+            }
+            return n;
+        } finally {
+            in.close();
+        }
+    }
+}
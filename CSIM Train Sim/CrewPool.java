@@ -0,0 +1,47 @@
+package com.trainsim;
+
+import java.util.ArrayDeque;
+
+// The replacement crews of the yard. A crew that hogs out takes its
+// replacement from the pool, waiting in line while none is free, and the
+// replacement goes back to the pool when its train departs or it hogs out
+// itself. A pool of size 0 never runs out, like the original model.
+class CrewPool<T> implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final boolean limited; // False if the pool never runs out
+    private int available; // Crews in the pool
+    private final ArrayDeque<T> waiting = new ArrayDeque<T>(); // Waiting for a crew
+
+    /*
+    Parameter(1): Number of replacement crews, 0 for no limit
+    */
+    CrewPool( int size ) {
+        limited = size > 0;
+        available = size;
+    }
+
+    boolean limited() {
+        return limited;
+    }
+
+    // Take a crew for 'who'. Return false if 'who' has to wait for give()
+    // to hand it one
+    boolean take( T who ) {
+        if( !limited ) return true;
+        if( available > 0 ) {
+            available--;
+            return true;
+        }
+        waiting.add( who );
+        return false;
+    }
+
+    // Put a crew back. Return who it was handed to, null if nobody waits
+    T give() {
+        if( !limited ) return null;
+        T next = waiting.poll();
+        if( next == null )
+            available++;
+        return next;
+    }
+}
@@ -0,0 +1,285 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs this simulator and the C++ one of "C++ Train Sim" on the same
+// schedule and travel times files, checks that they did the same thing
+// and compares their speed. Each runs as a process of its own, so both pay
+// for starting up. They agree if every trace line names the same event of
+// the same train at the same time and the statistics both print are equal
+// to the precision they are printed with. Crew ids, the hours a crew has
+// left and queue lengths are left out of the trace, as the two count them
+// differently, and so is the dock idle percentage: the C++ dock is idle
+// when it is empty too. Busy and hogged-out time are compared in hours, as
+// the two runs end at different times after the last departure.
+// Startup is the time of a run of the schedule's first train alone, and
+// events per second count the trace lines of the full run past it. Peak
+// memory is the resident set size, read from /proc while the run goes.
+// Exits with 1 if the two disagree.
+// Usage: CrossCheck [-cpp <binary>] [-e <engine>] [-n <runs>] <schedule> <travel times>
+public class CrossCheck {
+    private static final String USAGE = "Usage: CrossCheck [-cpp <binary>] [-e <engine>] "
+        + "[-n <runs>] <schedule> <travel times>";
+    private static final String CPP = "../C++ Train Sim/train"; // Default C++ binary
+    private static final long SAMPLE_MS = 5; // Time between peak memory reads
+    private static final String[] EXACT = { "Total number of trains served",
+        "Maximum number of trains in queue" };
+    private static final String[] HOURS = { "Average time-in-system per train",
+        "Maximum time-in-system per train", "Time average of trains in queue" };
+    private static final String[] DOCK = { "Dock busy percentage",
+        "Dock hogged-out percentage" };
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        String cpp = CPP;
+        String engine = "heap";
+        int runs = 3;
+        List<String> rest = new ArrayList<String>();
+        for( int i = 0; i < args.length; ++i ) {
+            if( args[i].equals( "-cpp" ) && i + 1 < args.length )
+                cpp = args[++i];
+            else if( args[i].equals( "-e" ) && i + 1 < args.length )
+                engine = args[++i];
+            else if( args[i].equals( "-n" ) && i + 1 < args.length )
+                runs = Integer.parseInt( args[++i] );
+            else
+                rest.add( args[i] );
+        }
+        if( rest.size() != 2 || runs < 1 ) {
+            System.out.println( USAGE );
+            return;
+        }
+        if( !new File( cpp ).canExecute() ) {
+            System.out.println( "No C++ simulator at " + cpp + ", build it with make" );
+            return;
+        }
+        String schedule = rest.get( 0 );
+        String travel = rest.get( 1 );
+        String[] one = firstTrain( schedule, travel );
+        String java = Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString();
+        String cp = System.getProperty( "java.class.path" );
+        // Long enough for any schedule, the C++ sim has no limit
+        String[] javaCmd = { java, "-cp", cp, "com.trainsim.TrainSim", "-e", engine,
+            "-s", null, null, "1e300" };
+        String[] cppCmd = { cpp, "-s", null, null };
+        Run javaRun = measure( "java " + engine, javaCmd, schedule, travel, one, runs );
+        Run cppRun = measure( "c++", cppCmd, schedule, travel, one, runs );
+        boolean same = compare( javaRun, cppRun, System.out );
+        System.out.println( "" );
+        System.out.printf( "%-12s %10s %10s %12s %14s %12s\n", "Simulator", "Startup",
+            "Run", "Events", "Events/sec", "Peak RSS" );
+        javaRun.print( System.out );
+        cppRun.print( System.out );
+        System.exit( same ? 0 : 1 );
+    }
+
+    // What a simulator did and how fast, the best of its runs
+    private static final class Run {
+        final String name;
+        long[] trace = new long[1024]; // Hash of each trace line
+        int events = 0; // Trace lines in 'trace'
+        final Map<String, String> stats = new LinkedHashMap<String, String>();
+        double end = 0.0; // Time the simulation ended at
+        double startup = Double.POSITIVE_INFINITY; // Seconds to run one train
+        double seconds = Double.POSITIVE_INFINITY; // Seconds to run the schedule
+        long peakKb = 0; // Largest resident set of any run
+        Run( String name ) {
+            this.name = name;
+        }
+        long events() {
+            return events;
+        }
+        void event( long hash ) {
+            if( events == trace.length )
+                trace = java.util.Arrays.copyOf( trace, 2 * events );
+            trace[events++] = hash;
+        }
+        void print( PrintStream out ) {
+            double work = seconds - startup;
+            out.printf( "%-12s %9.3fs %9.3fs %12d %14s %9.1f MB\n", name, startup, seconds,
+                events(), work > 0 ? String.format( "%.0f", events() / work ) : "-",
+                peakKb / 1024.0 );
+        }
+    }
+
+    // Run 'cmd' with the one-train files and the real ones 'runs' times each
+    private static Run measure( String name, String[] cmd, String schedule, String travel,
+            String[] one, int runs ) throws IOException, InterruptedException {
+        Run r = new Run( name );
+        for( int i = 0; i < runs; ++i ) {
+            r.startup = Math.min( r.startup, launch( cmd, one[0], one[1], null, r ) );
+            Run first = i == 0 ? r : null; // Only the first run is checked
+            r.seconds = Math.min( r.seconds, launch( cmd, schedule, travel, first, r ) );
+        }
+        return r;
+    }
+
+    // Run 'cmd' on the files and return its wall time in seconds. The trace
+    // and statistics go into 'into' unless it is null, the peak memory into 'peak'
+    private static double launch( String[] cmd, String schedule, String travel, Run into,
+            Run peak ) throws IOException, InterruptedException {
+        String[] c = cmd.clone();
+        int s = java.util.Arrays.asList( c ).indexOf( "-s" );
+        c[s + 1] = schedule;
+        c[s + 2] = travel;
+        ProcessBuilder pb = new ProcessBuilder( c );
+        pb.redirectErrorStream( true );
+        long t0 = System.nanoTime();
+        final Process p = pb.start();
+        final long[] kb = new long[1];
+        Thread sampler = new Thread( new Runnable() {
+            public void run() {
+                String status = "/proc/" + p.pid() + "/status";
+                while( p.isAlive() ) {
+                    kb[0] = Math.max( kb[0], highWater( status ) );
+                    try {
+                        Thread.sleep( SAMPLE_MS );
+                    } catch( InterruptedException e ) {
+                        return;
+                    }
+                }
+            }
+        }, "Memory sampler" );
+        sampler.setDaemon( true );
+        sampler.start();
+        BufferedReader in = new BufferedReader( new InputStreamReader( p.getInputStream() ), 1 << 16 );
+        boolean inStats = false;
+        for( String line = in.readLine(); line != null; line = in.readLine() ) {
+            if( into == null )
+                continue;
+            if( line.equals( "Statistics" ) )
+                inStats = true;
+            else if( !inStats && line.startsWith( "Time " ) ) {
+                if( line.endsWith( "simulation ended" ) )
+                    into.end = Double.parseDouble( line.substring( 5, line.indexOf( ':' ) ) );
+                else
+                    into.event( hash( normalize( line ) ) );
+            }
+            else if( inStats && line.indexOf( ": " ) > 0 ) {
+                int colon = line.indexOf( ": " );
+                into.stats.put( line.substring( 0, colon ), line.substring( colon + 2 ).trim() );
+            }
+        }
+        int exit = p.waitFor();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        sampler.join();
+        if( exit != 0 )
+            throw new IOException( cmd[0] + " exited with " + exit );
+        peak.peakKb = Math.max( peak.peakKb, kb[0] );
+        return seconds;
+    }
+
+    // Highest resident set of a process so far in kB, 0 once it is gone
+    private static long highWater( String status ) {
+        try {
+            for( String line : Files.readAllLines( Paths.get( status ) ) )
+                if( line.startsWith( "VmHWM:" ) )
+                    return Long.parseLong( line.replaceAll( "[^0-9]", "" ) );
+        } catch( IOException e ) {
+            // Ended between the check and the read
+        }
+        return 0;
+    }
+
+    // A trace line without what the two simulators count differently
+    static String normalize( String line ) {
+        return line.replaceAll( "crew \\d+ with [0-9.]+h before hogout", "crew" )
+            .replaceAll( "crew \\d+", "crew" ).replaceAll( " ?\\(Q=\\d+\\)", "" );
+    }
+
+    // 64-bit FNV-1a of a line
+    private static long hash( String s ) {
+        long h = 0xcbf29ce484222325L;
+        for( int i = 0; i < s.length(); ++i ) {
+            h ^= s.charAt( i );
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Compare the traces and statistics of two runs, print each check and
+    // return true if every one of them matched
+    private static boolean compare( Run a, Run b, PrintStream out ) {
+        boolean same = true;
+        out.printf( "%-36s %14s %14s  %s\n", "Check", a.name, b.name, "Match" );
+        int n = Math.min( a.events, b.events );
+        int diverged = -1;
+        for( int i = 0; i < n && diverged < 0; ++i )
+            if( a.trace[i] != b.trace[i] )
+                diverged = i;
+        if( diverged < 0 && a.events != b.events )
+            diverged = n;
+        same &= row( out, "Trace events", Long.toString( a.events() ),
+            Long.toString( b.events() ), diverged < 0 );
+        if( diverged >= 0 )
+            out.printf( "  traces differ from event %d on\n", diverged + 1 );
+        for( String key : EXACT )
+            same &= row( out, key, a.stats.get( key ), b.stats.get( key ),
+                a.stats.get( key ) != null && a.stats.get( key ).equals( b.stats.get( key ) ) );
+        for( String key : HOURS ) {
+            double x = number( a.stats.get( key ) );
+            double y = number( b.stats.get( key ) );
+            // Both are printed to 2 or 3 decimals
+            same &= row( out, key, a.stats.get( key ), b.stats.get( key ),
+                Math.abs( x - y ) <= 0.0105 );
+        }
+        for( String key : DOCK ) {
+            double x = number( a.stats.get( key ) ) / 100 * a.end;
+            double y = number( b.stats.get( key ) ) / 100 * b.end;
+            // Percentages printed to 2 decimals of runs of different lengths
+            double tolerance = 0.0001 * Math.max( a.end, b.end );
+            same &= row( out, key.replace( "percentage", "hours" ), String.format( "%.2f", x ),
+                String.format( "%.2f", y ), Math.abs( x - y ) <= tolerance );
+        }
+        for( int i = 0; i < 100; ++i ) {
+            String key = "[" + i + "]";
+            String x = a.stats.get( key );
+            String y = b.stats.get( key );
+            if( x == null && y == null ) break;
+            same &= row( out, "Trains with at least " + i + " hogouts", x, y,
+                x != null && x.equals( y ) );
+        }
+        out.println( same ? "The simulators agree" : "The simulators DISAGREE" );
+        return same;
+    }
+
+    private static boolean row( PrintStream out, String check, String a, String b,
+            boolean match ) {
+        out.printf( "%-36s %14s %14s  %s\n", check, a, b, match ? "yes" : "NO" );
+        return match;
+    }
+
+    // The number at the start of a statistic, like "6.37h" or "3.20%"
+    private static double number( String value ) {
+        if( value == null )
+            return Double.NaN;
+        return Double.parseDouble( value.replaceAll( "[^0-9.eE+-]", "" ) );
+    }
+
+    // Write the schedule's first train and first travel time to temporary
+    // files, to time a run that does nearly nothing
+    private static String[] firstTrain( String schedule, String travel ) throws IOException {
+        String[] files = new String[2];
+        String[] from = { schedule, travel };
+        for( int f = 0; f < 2; ++f ) {
+            File tmp = File.createTempFile( f == 0 ? "schedule" : "travel", ".txt" );
+            tmp.deleteOnExit();
+            BufferedReader in = new BufferedReader( new FileReader( from[f] ) );
+            try {
+                PrintWriter out = new PrintWriter( new FileWriter( tmp ) );
+                String line = in.readLine();
+                out.println( line != null ? line : "" );
+                out.close();
+            } finally {
+                in.close();
+            }
+            files[f] = tmp.getPath();
+        }
+        return files;
+    }
+}
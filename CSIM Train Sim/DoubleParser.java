@@ -0,0 +1,159 @@
+package com.trainsim;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Parses decimal doubles straight out of a byte buffer without building a
+// String. Results are the same as Double.parseDouble: an exact fast path is
+// used for short values, the Eisel-Lemire algorithm for up to 19 significant
+// digits, and Double.parseDouble itself for anything else.
+final class DoubleParser {
+    private static final int MIN_EXP = -100; // Smallest power of ten in the table
+    private static final int MAX_EXP = 100; // Largest power of ten in the table
+    private static final long[] POW10_HI = new long[MAX_EXP - MIN_EXP + 1];
+    private static final long[] POW10_LO = new long[MAX_EXP - MIN_EXP + 1];
+    private static final double[] EXACT = new double[23]; // 10^0 .. 10^22
+
+    static {
+        // 128-bit mantissas of the powers of ten, rounded down
+        for( int q = MIN_EXP; q <= MAX_EXP; ++q ) {
+            BigInteger p;
+            if( q >= 0 ) {
+                p = BigInteger.TEN.pow( q );
+                int shift = p.bitLength() - 128;
+                p = shift > 0 ? p.shiftRight( shift ) : p.shiftLeft( -shift );
+            }
+            else {
+                BigInteger d = BigInteger.TEN.pow( -q );
+                p = BigInteger.ONE.shiftLeft( 127 + d.bitLength() ).divide( d );
+            }
+            POW10_HI[q - MIN_EXP] = p.shiftRight( 64 ).longValue();
+            POW10_LO[q - MIN_EXP] = p.longValue();
+        }
+        double v = 1.0;
+        for( int i = 0; i < EXACT.length; ++i ) {
+            EXACT[i] = v;
+            v *= 10.0;
+        }
+    }
+
+    private DoubleParser() {}
+
+    // Parse the bytes in [start, end) of 'b' as a double
+    // Throws NumberFormatException like Double.parseDouble on bad input
+    static double parse( ByteBuffer b, int start, int end ) {
+        int i = start;
+        boolean neg = false;
+        if( i < end && (b.get(i) == '-' || b.get(i) == '+') ) {
+            neg = b.get(i) == '-';
+            ++i;
+        }
+        long man = 0; // Significant digits, unsigned once past 18 of them
+        int digits = 0; // Number of significant digits in 'man'
+        int exp10 = 0; // Power of ten 'man' is scaled by
+        boolean any = false; // Saw at least one digit
+        boolean point = false; // Saw the decimal point
+        for( ; i < end; ++i ) {
+            int c = b.get(i);
+            if( c >= '0' && c <= '9' ) {
+                any = true;
+                if( man == 0 && c == '0' ) {
+                    // Leading zeros are not significant
+                    if( point ) exp10--;
+                    continue;
+                }
+                if( digits == 19 ) return slow( b, start, end );
+                man = man * 10 + (c - '0');
+                digits++;
+                if( point ) exp10--;
+            }
+            else if( c == '.' && !point ) {
+                point = true;
+            }
+            else {
+                break;
+            }
+        }
+        if( !any ) return slow( b, start, end );
+        if( i < end ) {
+            // Only an exponent may follow the digits
+            int c = b.get(i);
+            if( c != 'e' && c != 'E' ) return slow( b, start, end );
+            ++i;
+            boolean eNeg = false;
+            if( i < end && (b.get(i) == '-' || b.get(i) == '+') ) {
+                eNeg = b.get(i) == '-';
+                ++i;
+            }
+            if( i == end ) return slow( b, start, end );
+            int e = 0;
+            for( ; i < end; ++i ) {
+                c = b.get(i);
+                if( c < '0' || c > '9' || e > 10000 ) return slow( b, start, end );
+                e = e * 10 + (c - '0');
+            }
+            exp10 += eNeg ? -e : e;
+        }
+        if( man == 0 ) return neg ? -0.0 : 0.0;
+        // Exact when both the digits and the power of ten fit a double
+        if( man >= 0 && man < (1L << 53) && exp10 >= -22 && exp10 <= 22 ) {
+            double d = exp10 >= 0 ? man * EXACT[exp10] : man / EXACT[-exp10];
+            return neg ? -d : d;
+        }
+        long bits = eiselLemire( man, exp10 );
+        if( bits < 0 ) return slow( b, start, end );
+        return Double.longBitsToDouble( neg ? bits | Long.MIN_VALUE : bits );
+    }
+
+    // Bits of man * 10^exp10 correctly rounded, or -1 if it can't be decided
+    private static long eiselLemire( long man, int exp10 ) {
+        if( exp10 < MIN_EXP || exp10 > MAX_EXP ) return -1;
+        int clz = Long.numberOfLeadingZeros( man );
+        man <<= clz;
+        long retExp2 = ((217706L * exp10) >> 16) + 64 + 1023 - clz;
+        long pHi = POW10_HI[exp10 - MIN_EXP];
+        long pLo = POW10_LO[exp10 - MIN_EXP];
+        long xHi = mulHigh( man, pHi );
+        long xLo = man * pHi;
+        // Widen the approximation when the low bits are inconclusive
+        if( (xHi & 0x1FF) == 0x1FF && Long.compareUnsigned( xLo + man, man ) < 0 ) {
+            long yHi = mulHigh( man, pLo );
+            long yLo = man * pLo;
+            long mergedHi = xHi;
+            long mergedLo = xLo + yHi;
+            if( Long.compareUnsigned( mergedLo, xLo ) < 0 ) mergedHi++;
+            if( (mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0
+                    && Long.compareUnsigned( yLo + man, man ) < 0 )
+                return -1;
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+        long msb = xHi >>> 63;
+        long retMan = xHi >>> (msb + 9);
+        retExp2 -= 1 ^ msb;
+        // Exactly half way between two doubles
+        if( xLo == 0 && (xHi & 0x1FF) == 0 && (retMan & 3) == 1 ) return -1;
+        retMan += retMan & 1;
+        retMan >>>= 1;
+        if( (retMan >>> 53) > 0 ) {
+            retMan >>>= 1;
+            retExp2++;
+        }
+        // Subnormal, infinite or NaN results are left to the slow path
+        if( retExp2 < 1 || retExp2 >= 0x7FF ) return -1;
+        return (retExp2 << 52) | (retMan & 0x000FFFFFFFFFFFFFL);
+    }
+
+    // High 64 bits of the unsigned 128-bit product of a and b
+    private static long mulHigh( long a, long b ) {
+        return Math.multiplyHigh( a, b ) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static double slow( ByteBuffer b, int start, int end ) {
+        byte[] bytes = new byte[end - start];
+        for( int i = start; i < end; ++i )
+            bytes[i - start] = b.get(i);
+        return Double.parseDouble( new String( bytes, StandardCharsets.US_ASCII ) );
+    }
+}
@@ -0,0 +1,61 @@
+package com.trainsim;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+// Trace sink that packs records into a byte buffer with TraceCodec and
+// hands the buffer to drain() whenever it can't hold another record
+abstract class EncodingTrace implements TraceSink {
+    protected ByteBuffer buf; // Records not drained yet
+
+    EncodingTrace( ByteBuffer buf ) {
+        this.buf = buf;
+    }
+
+    // Write out the records in 'buf' (flipped) and leave it ready for more
+    protected abstract void drain() throws IOException;
+
+    private void room() {
+        if( buf.remaining() < TraceCodec.MAX_RECORD ) {
+            try {
+                drain();
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+
+    public void arrival( double time, int train, double unload, int crew, double timeLeft, int q ) {
+        room();
+        TraceCodec.arrival( buf, time, train, unload, crew, timeLeft, q );
+    }
+    public void enterDock( double time, int train, double unload, int crew, double timeLeft ) {
+        room();
+        TraceCodec.enterDock( buf, time, train, unload, crew, timeLeft );
+    }
+    public void departure( double time, int train, int q ) {
+        room();
+        TraceCodec.event( buf, TraceCodec.DEPARTURE, time, train, q );
+    }
+    public void hogoutInQ( double time, int train, int crew ) {
+        room();
+        TraceCodec.event( buf, TraceCodec.HOGOUT_IN_Q, time, train, crew );
+    }
+    public void hogoutInDock( double time, int train, int crew ) {
+        room();
+        TraceCodec.event( buf, TraceCodec.HOGOUT_IN_DOCK, time, train, crew );
+    }
+    public void crewArrival( double time, int train, int crew ) {
+        room();
+        TraceCodec.event( buf, TraceCodec.CREW_ARRIVAL, time, train, crew );
+    }
+    public void stuckInQ( double time, int train, int crew ) {
+        room();
+        TraceCodec.event( buf, TraceCodec.STUCK_IN_Q, time, train, crew );
+    }
+    public void ended( double time ) {
+        room();
+        TraceCodec.ended( buf, time );
+    }
+}
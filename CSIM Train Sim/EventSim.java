@@ -0,0 +1,593 @@
+package com.trainsim;
+
+import java.io.*;
+
+// Runs one simulation of the unloading dock on a single-threaded event
+// calendar instead of CSIM processes. Sim, Gen, Train and Crew go through
+// the same steps as their CSIM processes in TrainSim, but each one is a
+// state machine resumed from a binary heap of (time, order) entries, like
+// the eventQ of the C++ simulator. Every wait and wake-up follows the CSIM
+// rules, so the trace and statistics match the CSIM engine. Everything but
+// the output is serializable, so a running sim can be checkpointed between
+// two events and resumed from there with the same results, or frozen and
+// thawed into copies that go their own ways once reseeded, which is how
+// TrainSplit splits a run.
+class EventSim implements Serializable {
+    private static final long serialVersionUID = 1L;
+    enum CrewStat { ONCLOCK, HOGGED }; // Crew statuses
+    enum TrainStat { INQ, INDOCK }; // Train statuses
+    private transient PrintStream out; // Where this sim prints its statistics to
+    private transient TraceSink trace; // Where this sim's event trace goes
+    private transient Metrics.Recorder metrics; // Live metrics, null if not recorded
+    private transient StateLog states; // Log of the state changes, null if not logged
+    private final TrainSimUtil util; // Used to generate or grab next train/crew value
+    private final double simTime; // Max simulation time
+    private final boolean premade; // Schedule holds arrival, not inter-arrival, times
+    private final Calendar calendar = new Calendar(); // Pending resumptions
+    private double clock = 0.0; // Current simulation time
+    private boolean endSim = false; // Flag used to stop simulation
+    private boolean ended = false; // Sim has printed its statistics
+    private boolean started = false; // Sim has been scheduled
+    private transient String checkpoint; // Snapshot file, null for none
+    private double every; // Simulated hours between snapshots
+    private double nextCheckpoint; // Time of the next snapshot
+    private int trainId = 0; // Next Train id
+    private int crewId = 0; // Next Crew id
+    private int maxQueue = 0; // Longest the queue has been
+    private int maxHogouts = 0; // Most hogouts of any one train
+    private final Yard<Train> yard; // The unloading docks
+    private final CrewPool<Crew> pool; // The replacement crews
+    private final TrainStats stats;
+    private final Sim sim = new Sim();
+    private final Gen gen = new Gen();
+
+    /*
+    Parameter(1): Stream the statistics are printed to, null to print nothing
+    Parameter(2): Sink of the event trace
+    Parameter(3): Source of the train and crew values
+    Parameter(4): Max simulation time
+    Parameter(5): True if 'util' reads a schedule of exact arrival times
+    Parameter(6): Number of unloading docks
+    Parameter(7): How trains are given docks
+    Parameter(8): Number of replacement crews, 0 for no limit
+    Parameter(9): Steady-state estimate that stops the arrivals early, or null
+    */
+    EventSim( PrintStream out, TraceSink trace, TrainSimUtil util, double simTime,
+            boolean premade, int docks, Yard.Policy policy, int crews, BatchMeans steady ) {
+        this.out = out;
+        this.trace = trace;
+        this.util = util;
+        this.simTime = simTime;
+        this.premade = premade;
+        yard = new Yard<Train>( docks, policy );
+        pool = new CrewPool<Crew>( crews );
+        stats = new TrainStats( docks, steady );
+    }
+
+    // Continue a sim saved to 'file', printing to 'out' and tracing to 'trace'
+    static EventSim resume( String file, PrintStream out, TraceSink trace ) throws IOException {
+        EventSim sim = (EventSim) Checkpoint.read( file );
+        sim.out = out;
+        sim.trace = trace;
+        return sim;
+    }
+
+    // Save the sim to 'file' every 'every' simulated hours
+    void checkpoint( String file, double every ) {
+        checkpoint = file;
+        if( this.every != every ) {
+            this.every = every;
+            nextCheckpoint = clock + every;
+        }
+    }
+
+    // Record the live metrics of the sim into 'm'
+    void metrics( Metrics.Recorder m ) {
+        metrics = m;
+    }
+
+    // Log every change of the queue, dock and crew states to 's'
+    void states( StateLog s ) {
+        states = s;
+    }
+
+    // The sim as bytes, for thaw() to make as many copies of as needed
+    byte[] freeze() throws IOException {
+        return Checkpoint.toBytes( this );
+    }
+
+    // A copy of a frozen sim, printing to 'out' and tracing to 'trace'
+    static EventSim thaw( byte[] frozen, PrintStream out, TraceSink trace ) throws IOException {
+        EventSim sim = (EventSim) Checkpoint.fromBytes( frozen );
+        sim.out = out;
+        sim.trace = trace;
+        return sim;
+    }
+
+    // Draw the values from 'streams' from here on, see TrainSimUtil.reseed()
+    void reseed( RandomStream[] streams ) {
+        util.reseed( streams );
+    }
+
+    // Run the sim to its end and return its statistics
+    TrainStats run() throws IOException {
+        while( !ended ) {
+            // Snapshot between two events, before the clock passes the mark
+            if( checkpoint != null && calendar.size > 0 && calendar.time[0] >= nextCheckpoint ) {
+                while( calendar.time[0] >= nextCheckpoint )
+                    nextCheckpoint += every;
+                trace.flush();
+                if( states != null )
+                    states.flush();
+                Checkpoint.write( this, checkpoint );
+            }
+            step();
+        }
+        return stats;
+    }
+
+    // Run the sim until the queue has been 'queue' trains long or a train
+    // has hogged out 'hogouts' times and return true, else run it to its
+    // end and return false. It stops between two events, ready to be frozen
+    boolean runUntil( int queue, int hogouts ) throws IOException {
+        while( !ended && maxQueue < queue && maxHogouts < hogouts )
+            step();
+        return maxQueue >= queue || maxHogouts >= hogouts;
+    }
+
+    // Resume whatever is first in the calendar
+    private void step() throws IOException {
+        if( !started ) {
+            schedule( sim, 0.0 );
+            started = true;
+        }
+        if( calendar.size == 0 )
+            throw new IllegalStateException( "nextEvent: No more events" );
+        double time = calendar.time[0];
+        long order = calendar.order[0];
+        Entity e = calendar.poll();
+        // Skip resumptions that were replaced by a later wake-up
+        if( order != e.pending ) return;
+        e.pending = -1;
+        clock = time;
+        e.resume();
+    }
+
+    // Time the sim ended at, once run() returned
+    double clock() {
+        return clock;
+    }
+
+    // Resume 'e' after 'interval' hours, replacing any pending resumption
+    private void schedule( Entity e, double interval ) {
+        if( interval < 0 )
+            throw new RuntimeException( "schedule: interval cannot be negative" );
+        e.pending = calendar.add( clock + interval, e );
+    }
+
+    /* ENTITIES */
+    private abstract class Entity implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int phase = 0; // Step to continue from when resumed
+        long pending = -1; // Order of the pending resumption, -1 if none
+        boolean woken = false; // Last wait ended by a set, not a time out
+        abstract void resume() throws IOException;
+    }
+
+    // A CSIM event: set() wakes the waiter or, with nobody waiting, stays
+    // occurred until the next wait clears it without blocking
+    private final class Flag implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private boolean occurred = false;
+        private Entity waiter = null;
+        void set() {
+            if( waiter != null ) {
+                waiter.woken = true;
+                schedule( waiter, 0.0 );
+                waiter = null;
+            }
+            else {
+                occurred = true;
+            }
+        }
+        // Forget a set() nobody waited for
+        void clear() {
+            occurred = false;
+        }
+        // Return true if 'e' may go on now, else it waits and resumes at 'phase'
+        boolean await( Entity e, int phase ) {
+            if( occurred ) {
+                occurred = false;
+                return true;
+            }
+            e.woken = false;
+            e.phase = phase;
+            waiter = e;
+            return false;
+        }
+    }
+
+    // Simulation class used to simulate the unloading dock
+    private final class Sim extends Entity {
+        private static final long serialVersionUID = 1L;
+        private final Flag lastTrain = new Flag(); // Last train event used to end a sim
+        // A phase that need not wait goes straight on into the next one
+        @SuppressWarnings( "fallthrough" )
+        void resume() throws IOException {
+            switch( phase ) {
+            case 0:
+                // start generating train arrivals
+                schedule( gen, 0.0 );
+                // wait till last train arrival (based on sim time)
+                if( !lastTrain.await( this, 1 ) ) return;
+            case 1:
+                // Fixes the error of not waiting for last departure
+                phase = 2;
+                schedule( this, 10.0 );
+                return;
+            default:
+                trace.ended( clock );
+                if( states != null )
+                    states.end( clock );
+                // The trace has to be out before the statistics
+                trace.flush();
+                if( out != null )
+                    stats.print( out, clock );
+                ended = true;
+                if( metrics != null )
+                    metrics.close();
+                // Draws what is left of the controls if the run stopped early
+                stats.controls( util.controls() );
+                // Closes files if needed to
+                util.finalize();
+                trace.close();
+                if( states != null )
+                    states.close();
+            }
+        }
+    }
+
+    // Generate train arrivals class
+    private final class Gen extends Entity {
+        private static final long serialVersionUID = 1L;
+        private Train next; // Train waiting for its arrival time
+        void resume() throws IOException {
+            // Start the trains process
+            if( next != null )
+                schedule( next, 0.0 );
+            // Create a new train
+            next = new Train();
+            // If train can't be made simTime is up or file is empty
+            if( endSim ) return;
+            // Hold inter arrival time amount till next train
+            schedule( this, next.iarTime );
+        }
+    }
+
+    // Train class
+    private final class Train extends Entity {
+        private static final long serialVersionUID = 1L;
+        private static final int GOT_DOCK = 1, IN_DOCK = 2, UNLOADING = 3,
+            CREW_BACK = 4, DEPART = 5;
+        private final int id; // Train id
+        private double startTime; // Time the train starts in the system
+        private double endQTime; // Time the train left the queue
+        private double iarTime; // This trains inter-arrival time
+        private double unloadTime; // Time it takes to unload the train
+        private double cClock; // Crews remaining hours
+        private TrainStat status; // Current status of the train
+        private Crew crew; // The connected crew
+        private Yard.Ticket<Train> ticket; // The trains place in the yard
+        private double gotDock; // Time the train got its dock
+        private final Flag eHogout = new Flag(); // hogout event
+        private final Flag eNewCrew = new Flag(); // new crew arrival event
+        private boolean jump = false; // Used to not get stuck in an immediate next hogout
+        private double dockIdle = 0.0; // Used for dock idle stats
+        private double dockHog = 0.0; // Used for dock hogged stats
+        private double start = 0.0; // Used to mark a start point to record from
+        Train() throws IOException {
+            id = trainId++;
+            // If Sim time is up, schedule file is empty or the run reached
+            // steady state, signal for endSim
+            if( !util.nextTrain() || simTime < clock || stats.isSteady() ) {
+                endSim = true;
+                return;
+            }
+            // Used to adjust for the schedule file having exact arrival times
+            // and not inter-arrival times
+            iarTime = premade ? util.arrival() - clock : util.arrival();
+            unloadTime = util.unload();
+            cClock = util.crewHours();
+        }
+
+        // Phases run on into the next, as the train's process did, until it waits
+        @SuppressWarnings( "fallthrough" )
+        void resume() {
+            switch( phase ) {
+            case 0:
+                /* TRAIN ARRIVES */
+                stats.arrival( unloadTime );
+                startTime = clock;
+                crew = new Crew( this, cClock );
+                schedule( crew, 0.0 );
+                trace.arrival( clock, id, unloadTime, crew.id, crew.timeLeft, yard.queued() );
+                /* TRAIN ENTER QUEUE */
+                status = TrainStat.INQ;
+                phase = GOT_DOCK;
+                ticket = yard.arrive( this, crew.hogoutAt );
+                maxQueue = Math.max( maxQueue, yard.queued() );
+                if( metrics != null )
+                    metrics.arrival( clock, yard.queued() );
+                if( states != null ) {
+                    states.queue( clock, yard.queued() );
+                    states.crew( clock, id, StateLog.BUSY );
+                }
+                if( ticket.dock() < 0 ) return;
+            case GOT_DOCK:
+                gotDock = clock;
+                dockState( crew.status == CrewStat.HOGGED ? StateLog.HOGGED : StateLog.BUSY );
+                // Hogouts and crews that came while in the queue are over with,
+                // only those from here on are waited for
+                eHogout.clear();
+                eNewCrew.clear();
+                // Train is stuck in queue till the new crew arrives
+                if( crew.status == CrewStat.HOGGED ) {
+                    start = clock;
+                    trace.stuckInQ( clock, id, crew.id );
+                    if( metrics != null )
+                        metrics.event( clock );
+                    jump = true;
+                    if( !eNewCrew.await( this, IN_DOCK ) ) return;
+                }
+            case IN_DOCK:
+                if( jump )
+                    dockIdle += (clock - start);
+                endQTime = clock;
+                /* IN DOCK */
+                trace.enterDock( clock, id, unloadTime, crew.id, crew.timeLeft );
+                if( metrics != null )
+                    metrics.event( clock );
+                status = TrainStat.INDOCK;
+                // Timed wait on the hogout event for the unloading time
+                if( !eHogout.await( this, UNLOADING ) ) {
+                    schedule( this, unloadTime );
+                    return;
+                }
+                woken = true;
+            case UNLOADING:
+                if( !woken ) {
+                    // Timed out, unloading finished without a hogout
+                    eHogout.waiter = null;
+                    depart();
+                    return;
+                }
+                // Crew hogged out, wait for a new crew then finish unloading
+                start = clock;
+                unloadTime -= (clock - endQTime);
+                if( !eNewCrew.await( this, CREW_BACK ) ) return;
+            case CREW_BACK:
+                dockIdle += (clock - start);
+                dockHog += (clock - start);
+                phase = DEPART;
+                schedule( this, unloadTime );
+                return;
+            default:
+                depart();
+            }
+        }
+
+        // The crew was replaced, which moves the train in a CREW queue
+        void crewChanged() {
+            if( ticket != null && ticket.dock() < 0 )
+                yard.rekey( ticket, crew.hogoutAt );
+        }
+
+        // Log the state of the train's dock, if it holds one
+        void dockState( int state ) {
+            if( states != null && ticket != null && ticket.dock() >= 0 )
+                states.dock( clock, ticket.dock(), state );
+        }
+
+        /* DEPARTING */
+        private void depart() {
+            crew.depart();
+            trace.departure( clock, id, yard.queued() );
+            // Check for new max queue size
+            stats.queue( yard.queued() );
+            // Hand the dock to the next train
+            Yard.Ticket<Train> next = yard.depart( ticket.dock() );
+            if( next != null )
+                schedule( next.train, 0.0 );
+            stats.departure( clock - startTime, endQTime - startTime, dockIdle, dockHog,
+                crew.hogoutCount, ticket.dock(), clock - gotDock );
+            if( metrics != null )
+                metrics.departure( clock, clock - startTime, endQTime - startTime,
+                    clock - gotDock, yard.queued() );
+            if( states != null ) {
+                states.crew( clock, id, StateLog.GONE );
+                states.dock( clock, ticket.dock(), StateLog.IDLE );
+                states.queue( clock, yard.queued() );
+            }
+            // Send out last train event when end sim flag is raised and
+            // every train that came has left
+            if( endSim && yard.trains() == 0 )
+                sim.lastTrain.set();
+        }
+    }
+
+    // The crew class
+    private final class Crew extends Entity {
+        private static final long serialVersionUID = 1L;
+        private static final int HOGOUT = 1, POOL_CREW = 2, ARRIVES = 3;
+        private final Train train; // Reference to its train
+        private int id; // Crew id
+        private CrewStat status = CrewStat.ONCLOCK; // Crew status
+        private double timeLeft; // Time till crew hogs out
+        private int hogoutCount = 0; // count how many times this train had a crew hogout
+        private boolean departed = false; // If the crew has departed or not
+        private double hogoutAt; // Time the crew on the clock hogs out
+        private boolean fromPool = false; // The crew on the clock was taken from the pool
+        private double asked; // Time the crew asked the pool for a replacement
+        Crew( Train t, double tLeft ) {
+            train = t;
+            timeLeft = tLeft;
+            id = crewId++;
+            hogoutAt = clock + tLeft;
+        }
+
+        // Falls through from the hogout to waiting on a pool crew
+        @SuppressWarnings( "fallthrough" )
+        void resume() throws IOException {
+            switch( phase ) {
+            case 0:
+                // Wait till crew has to hogout
+                phase = HOGOUT;
+                schedule( this, timeLeft );
+                return;
+            case HOGOUT:
+                // if train departed then don't worry about hogging out
+                if( departed ) return;
+                if( train.status == TrainStat.INQ )
+                    trace.hogoutInQ( clock, train.id, id );
+                if( train.status == TrainStat.INDOCK )
+                    trace.hogoutInDock( clock, train.id, id );
+                status = CrewStat.HOGGED;
+                hogoutCount++;
+                maxHogouts = Math.max( maxHogouts, hogoutCount );
+                if( metrics != null )
+                    metrics.hogout( clock );
+                if( states != null ) {
+                    states.crew( clock, train.id, StateLog.HOGGED );
+                    train.dockState( StateLog.HOGGED );
+                }
+                id = crewId++;
+                train.eHogout.set();
+                /* WAIT FOR A CREW FROM THE POOL */
+                release();
+                asked = clock;
+                phase = POOL_CREW;
+                if( !pool.take( this ) ) return;
+            case POOL_CREW:
+                if( pool.limited() ) {
+                    fromPool = true;
+                    stats.crewWait.record( clock - asked );
+                    // The train left while waiting, nobody needs the crew
+                    if( departed ) {
+                        release();
+                        return;
+                    }
+                }
+                // Get new crew arrival time
+                double timeTillAr = util.getNextCrewArrival();
+                timeLeft = (12.0 - timeTillAr);
+                /* WAIT FOR NEW CREW */
+                phase = ARRIVES;
+                schedule( this, timeTillAr );
+                return;
+            default:
+                trace.crewArrival( clock, train.id, id );
+                if( metrics != null )
+                    metrics.event( clock );
+                if( states != null && !departed ) {
+                    states.crew( clock, train.id, StateLog.BUSY );
+                    train.dockState( StateLog.BUSY );
+                }
+                status = CrewStat.ONCLOCK;
+                hogoutAt = clock + timeLeft;
+                train.crewChanged();
+                if( departed )
+                    release();
+                train.eNewCrew.set();
+                phase = HOGOUT;
+                schedule( this, timeLeft );
+            }
+        }
+
+        void depart() {
+            departed = true;
+            if( status == CrewStat.ONCLOCK )
+                release();
+        }
+
+        // Put a crew taken from the pool back and hand it to the next in line
+        private void release() {
+            if( !fromPool ) return;
+            fromPool = false;
+            Crew next = pool.give();
+            if( next != null )
+                schedule( next, 0.0 );
+        }
+    }
+    /* END */
+
+    // Binary min-heap of resumptions ordered by time, then by the order they
+    // were scheduled in, kept in parallel arrays
+    private static final class Calendar implements Serializable {
+        private static final long serialVersionUID = 1L;
+        double[] time = new double[64];
+        long[] order = new long[64];
+        Entity[] entity = new Entity[64];
+        int size = 0;
+        private long next = 0; // Order given to the next entry
+
+        // Add 'e' at 'at' and return its order
+        long add( double at, Entity e ) {
+            if( size == time.length ) {
+                time = java.util.Arrays.copyOf( time, size * 2 );
+                order = java.util.Arrays.copyOf( order, size * 2 );
+                entity = java.util.Arrays.copyOf( entity, size * 2 );
+            }
+            long o = next++;
+            int i = size++;
+            // Sift up
+            while( i > 0 ) {
+                int parent = (i - 1) >>> 1;
+                if( !before( at, o, time[parent], order[parent] ) ) break;
+                move( parent, i );
+                i = parent;
+            }
+            time[i] = at;
+            order[i] = o;
+            entity[i] = e;
+            return o;
+        }
+
+        // Remove and return the first entry
+        Entity poll() {
+            Entity first = entity[0];
+            int last = --size;
+            double at = time[last];
+            long o = order[last];
+            Entity e = entity[last];
+            entity[last] = null;
+            // Sift the last entry down from the root
+            int i = 0;
+            while( true ) {
+                int child = 2 * i + 1;
+                if( child >= size ) break;
+                if( child + 1 < size
+                        && before( time[child + 1], order[child + 1], time[child], order[child] ) )
+                    child++;
+                if( !before( time[child], order[child], at, o ) ) break;
+                move( child, i );
+                i = child;
+            }
+            if( size > 0 ) {
+                time[i] = at;
+                order[i] = o;
+                entity[i] = e;
+            }
+            return first;
+        }
+
+        private void move( int from, int to ) {
+            time[to] = time[from];
+            order[to] = order[from];
+            entity[to] = entity[from];
+        }
+
+        private static boolean before( double t1, long o1, double t2, long o2 ) {
+            return t1 < t2 || (t1 == t2 && o1 < o2);
+        }
+    }
+}
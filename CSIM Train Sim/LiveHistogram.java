@@ -0,0 +1,58 @@
+package com.trainsim;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of hours laid out like an HDR histogram: every power of two
+// from 2^MIN_EXP to 2^MAX_EXP hours is split into SUB linear buckets, so a
+// bucket is found from the bits of the value without a log() and is within
+// 1/SUB of it. Values below the range count in the first bucket and values
+// above it in the last. Recorders count into plain long[] arrays of their
+// own and add them here with add(), so recording takes no atomics.
+final class LiveHistogram {
+    static final int SUB_BITS = 5; // Linear buckets per power of two, as bits
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MIN_EXP = -10; // Smallest power of two, about 3.5s
+    private static final int MAX_EXP = 20; // Largest power of two, about 120 years
+    static final int BUCKETS = (MAX_EXP - MIN_EXP + 1) * SUB;
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+
+    // Bucket of 'hours' in the counts of a recorder
+    static int bucket( double hours ) {
+        if( !(hours >= 0x1.0p-10) ) return 0;
+        long bits = Double.doubleToRawLongBits( hours );
+        int exp = (int) ((bits >>> 52) & 0x7FF) - 1023;
+        if( exp > MAX_EXP ) return BUCKETS - 1;
+        int sub = (int) ((bits >>> (52 - SUB_BITS)) & (SUB - 1));
+        return (exp - MIN_EXP) * SUB + sub;
+    }
+
+    // Add a recorder's counts and clear them
+    void add( long[] recorded ) {
+        for( int i = 0; i < BUCKETS; ++i ) {
+            if( recorded[i] != 0 ) {
+                counts.addAndGet( i, recorded[i] );
+                recorded[i] = 0;
+            }
+        }
+    }
+
+    // Return the 'q' quantile, the middle of its bucket, NaN if empty
+    double quantile( double q ) {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for( int i = 0; i < BUCKETS; ++i ) {
+            c[i] = counts.get( i );
+            total += c[i];
+        }
+        if( total == 0 ) return Double.NaN;
+        long rank = (long) Math.ceil( q * total );
+        long seen = 0;
+        for( int i = 0; i < BUCKETS; ++i ) {
+            seen += c[i];
+            if( seen >= Math.max( rank, 1 ) ) {
+                return Math.scalb( 1.0 + (i % SUB + 0.5) / SUB, i / SUB + MIN_EXP );
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,80 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads whitespace separated doubles from a memory-mapped file. The values
+// are parsed in place out of the mapping, so the file is never copied into
+// the heap. Large files are mapped one window at a time.
+class MappedNumberReader implements ValueReader {
+    private static final long WINDOW = 1L << 26; // Bytes mapped at a time
+    private final FileChannel channel; // The file being read
+    private final long size; // Bytes in the file
+    private long base = 0; // File offset of the mapped window
+    private MappedByteBuffer buf; // The mapped window
+
+    /*
+    Parameter(1): File location of the values
+    */
+    MappedNumberReader( String file ) throws IOException {
+        channel = new FileInputStream( file ).getChannel();
+        size = channel.size();
+        map( 0 );
+    }
+
+    public double next() throws IOException {
+        // Skip the separators in front of the value
+        int start = buf.position();
+        while( true ) {
+            while( start < buf.limit() && NumberReader.isSpace( buf.get( start ) ) )
+                start++;
+            if( start < buf.limit() ) break;
+            if( base + buf.limit() >= size ) {
+                buf.position( buf.limit() );
+                return Double.NaN;
+            }
+            map( base + buf.limit() );
+            start = 0;
+        }
+        int end = end( start );
+        if( end == buf.limit() && base + end < size ) {
+            // The value runs past the window, map again from its start
+            map( base + start );
+            start = 0;
+            end = end( 0 );
+            if( end == buf.limit() && base + end < size )
+                throw new IOException( "Value longer than the mapped window" );
+        }
+        double value = DoubleParser.parse( buf, start, end );
+        buf.position( end );
+        return value;
+    }
+
+    // The position is a file offset
+    public long position() {
+        return base + buf.position();
+    }
+
+    public void seek( long position ) throws IOException {
+        map( position );
+    }
+
+    // Return the index just past the value starting at 'start'
+    private int end( int start ) {
+        int end = start;
+        while( end < buf.limit() && !NumberReader.isSpace( buf.get( end ) ) )
+            end++;
+        return end;
+    }
+
+    // Map the window starting at file offset 'at'
+    private void map( long at ) throws IOException {
+        base = at;
+        buf = channel.map( FileChannel.MapMode.READ_ONLY, at, Math.min( WINDOW, size - at ) );
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
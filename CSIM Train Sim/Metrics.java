@@ -0,0 +1,303 @@
+package com.trainsim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Live metrics of every simulation running in this JVM. Each simulation
+// records into a Recorder of its own with plain fields, and the recorder
+// adds what it holds to the striped counters here every PUBLISH_EVERY
+// events and when the simulation ends, so the hot paths take no atomics
+// and the sims never contend. The rates, the dock utilization and the
+// hogout rate are over the last WINDOW_NS or so of wall time. The metrics
+// are read through JMX, from http://localhost:<port>/metrics and from a
+// periodic log line.
+final class Metrics implements MetricsMXBean {
+    static final Metrics REGISTRY = new Metrics(); // The metrics of this JVM
+    private static final int PUBLISH_EVERY = 1 << 14; // Events a recorder holds back
+    private static final long WINDOW_NS = 5000000000L; // Least wall time of a rate
+    private final LongAdder events = new LongAdder();
+    private final LongAdder arrived = new LongAdder();
+    private final LongAdder departed = new LongAdder();
+    private final LongAdder hogouts = new LongAdder();
+    private final LongAdder queued = new LongAdder(); // Trains queued in the running sims
+    private final DoubleAdder simHours = new DoubleAdder(); // Sim time of every sim
+    private final DoubleAdder dockHours = new DoubleAdder(); // Time trains held docks
+    private final DoubleAdder capacityHours = new DoubleAdder(); // Sim time times docks
+    private final AtomicInteger running = new AtomicInteger();
+    private final LiveHistogram timeIn = new LiveHistogram();
+    private final LiveHistogram timeInQ = new LiveHistogram();
+    private Sample older = new Sample(); // Start of the rates' window
+    private Sample newer = older; // Next start of the window
+    private HttpServer server; // Serves /metrics, null if not started
+    private ScheduledExecutorService logger; // Prints the log line, null if not started
+
+    private Metrics() {
+    }
+
+    // The totals at one moment, the rates are taken between two of them
+    private final class Sample {
+        final long nanos = System.nanoTime();
+        final long events = Metrics.this.events.sum();
+        final long hogouts = Metrics.this.hogouts.sum();
+        final double simHours = Metrics.this.simHours.sum();
+        final double dockHours = Metrics.this.dockHours.sum();
+        final double capacityHours = Metrics.this.capacityHours.sum();
+    }
+
+    // Records the metrics of one simulation. Only that simulation's thread
+    // may call it, or the CSIM processes of its model, which run one at a time
+    static final class Recorder {
+        private final Metrics to;
+        private final int docks; // Docks of the sim's yard
+        private int pending = 0; // Events since the last publish
+        private long events = 0;
+        private long arrived = 0;
+        private long departed = 0;
+        private long hogouts = 0;
+        private int queue = 0; // Trains queued now
+        private int publishedQueue = 0; // Trains queued at the last publish
+        private double clock = 0.0; // Sim time of the last event
+        private double publishedClock = 0.0; // Sim time at the last publish
+        private double dockHours = 0.0;
+        private final long[] timeIn = new long[LiveHistogram.BUCKETS];
+        private final long[] timeInQ = new long[LiveHistogram.BUCKETS];
+        private boolean closed = false;
+
+        private Recorder( Metrics to, int docks ) {
+            this.to = to;
+            this.docks = docks;
+            to.running.incrementAndGet();
+        }
+
+        // A train arrived at 'clock', leaving 'q' trains in the queue
+        void arrival( double clock, int q ) {
+            arrived++;
+            queue = q;
+            event( clock );
+        }
+
+        // A train departed at 'clock' after 'inSystem' hours, 'inQ' of them
+        // in the queue and 'atDock' at its dock, leaving 'q' in the queue
+        void departure( double clock, double inSystem, double inQ, double atDock, int q ) {
+            departed++;
+            queue = q;
+            dockHours += atDock;
+            timeIn[LiveHistogram.bucket( inSystem )]++;
+            timeInQ[LiveHistogram.bucket( inQ )]++;
+            event( clock );
+        }
+
+        // A crew hogged out at 'clock'
+        void hogout( double clock ) {
+            hogouts++;
+            event( clock );
+        }
+
+        // Any other traced event at 'clock': dock entries, crew arrivals...
+        void event( double clock ) {
+            events++;
+            this.clock = clock;
+            if( ++pending == PUBLISH_EVERY )
+                publish();
+        }
+
+        // Publish what is left, the sim has ended
+        void close() {
+            if( closed ) return;
+            closed = true;
+            queue = 0;
+            publish();
+            to.running.decrementAndGet();
+        }
+
+        private void publish() {
+            to.events.add( events );
+            to.arrived.add( arrived );
+            to.departed.add( departed );
+            to.hogouts.add( hogouts );
+            to.queued.add( queue - publishedQueue );
+            to.simHours.add( clock - publishedClock );
+            to.capacityHours.add( (clock - publishedClock) * docks );
+            to.dockHours.add( dockHours );
+            to.timeIn.add( timeIn );
+            to.timeInQ.add( timeInQ );
+            events = arrived = departed = hogouts = 0;
+            dockHours = 0.0;
+            publishedQueue = queue;
+            publishedClock = clock;
+            pending = 0;
+        }
+    }
+
+    // A recorder for a sim with a yard of 'docks' docks
+    Recorder recorder( int docks ) {
+        return new Recorder( this, docks );
+    }
+
+    /*
+    Register the metrics with JMX, serve them over HTTP and log them
+    Parameter(1): Port of http://localhost:<port>/metrics, 0 for JMX only
+    Parameter(2): Seconds between log lines, 0 for none
+    Parameter(3): Stream the log lines go to
+    */
+    synchronized void start( int port, double logEvery, final PrintStream log ) throws IOException {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "com.trainsim:type=Metrics" );
+            if( !mbs.isRegistered( name ) )
+                mbs.registerMBean( this, name );
+        } catch( JMException e ) {
+            throw new IOException( "Could not register the metrics with JMX: " + e.getMessage() );
+        }
+        if( port > 0 && server == null ) {
+            server = HttpServer.create(
+                new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+            server.createContext( "/metrics", new HttpHandler() {
+                public void handle( HttpExchange x ) throws IOException {
+                    byte[] body = text().getBytes( StandardCharsets.UTF_8 );
+                    x.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+                    x.sendResponseHeaders( 200, body.length );
+                    OutputStream o = x.getResponseBody();
+                    o.write( body );
+                    o.close();
+                }
+            } );
+            server.start();
+        }
+        if( logEvery > 0 && logger == null ) {
+            logger = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+                public Thread newThread( Runnable r ) {
+                    Thread t = new Thread( r, "Metrics log" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+            long every = (long) (logEvery * 1e9);
+            logger.scheduleAtFixedRate( new Runnable() {
+                public void run() {
+                    log.println( line() );
+                }
+            }, every, every, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    // Stop serving and logging, JMX keeps the metrics
+    synchronized void stop() {
+        if( server != null ) {
+            server.stop( 0 );
+            server = null;
+        }
+        if( logger != null ) {
+            logger.shutdownNow();
+            logger = null;
+        }
+    }
+
+    // The start of the rates' window, moved on once it is two windows old
+    private synchronized Sample since() {
+        long now = System.nanoTime();
+        if( now - newer.nanos >= WINDOW_NS ) {
+            older = newer;
+            newer = new Sample();
+        }
+        return older;
+    }
+
+    // The log line
+    String line() {
+        return String.format( "metrics: %d sims, %.0f events/s, %.1f sim-h/s, %d queued, "
+            + "dock utilization %.2f%%, %.4f hogouts/sim-h, time-in-system p50/p95/p99 "
+            + "%.2fh/%.2fh/%.2fh", getRunningSims(), getEventsPerSecond(),
+            getSimHoursPerSecond(), getTrainsInQueue(), getDockUtilization() * 100,
+            getHogoutsPerSimHour(), getTimeInSystemP50(), getTimeInSystemP95(),
+            getTimeInSystemP99() );
+    }
+
+    // The metrics served over HTTP, a "name value" line each
+    String text() {
+        StringBuilder b = new StringBuilder( 512 );
+        b.append( "trainsim_events " ).append( getEvents() ).append( '\n' );
+        b.append( "trainsim_trains_arrived " ).append( getTrainsArrived() ).append( '\n' );
+        b.append( "trainsim_trains_departed " ).append( getTrainsDeparted() ).append( '\n' );
+        b.append( "trainsim_hogouts " ).append( getHogouts() ).append( '\n' );
+        b.append( "trainsim_sim_hours " ).append( getSimHours() ).append( '\n' );
+        b.append( "trainsim_running_sims " ).append( getRunningSims() ).append( '\n' );
+        b.append( "trainsim_trains_in_queue " ).append( getTrainsInQueue() ).append( '\n' );
+        b.append( "trainsim_events_per_second " ).append( getEventsPerSecond() ).append( '\n' );
+        b.append( "trainsim_sim_hours_per_second " ).append( getSimHoursPerSecond() ).append( '\n' );
+        b.append( "trainsim_dock_utilization " ).append( getDockUtilization() ).append( '\n' );
+        b.append( "trainsim_hogouts_per_sim_hour " ).append( getHogoutsPerSimHour() ).append( '\n' );
+        b.append( "trainsim_time_in_system_p50 " ).append( getTimeInSystemP50() ).append( '\n' );
+        b.append( "trainsim_time_in_system_p95 " ).append( getTimeInSystemP95() ).append( '\n' );
+        b.append( "trainsim_time_in_system_p99 " ).append( getTimeInSystemP99() ).append( '\n' );
+        b.append( "trainsim_time_in_queue_p95 " ).append( getTimeInQueueP95() ).append( '\n' );
+        return b.toString();
+    }
+
+    /* MXBEAN */
+    public long getEvents() {
+        return events.sum();
+    }
+    public long getTrainsArrived() {
+        return arrived.sum();
+    }
+    public long getTrainsDeparted() {
+        return departed.sum();
+    }
+    public long getHogouts() {
+        return hogouts.sum();
+    }
+    public double getSimHours() {
+        return simHours.sum();
+    }
+    public int getRunningSims() {
+        return running.get();
+    }
+    public long getTrainsInQueue() {
+        return queued.sum();
+    }
+    public double getEventsPerSecond() {
+        Sample s = since();
+        return (events.sum() - s.events) * 1e9 / Math.max( 1, System.nanoTime() - s.nanos );
+    }
+    public double getSimHoursPerSecond() {
+        Sample s = since();
+        return (simHours.sum() - s.simHours) * 1e9 / Math.max( 1, System.nanoTime() - s.nanos );
+    }
+    public double getDockUtilization() {
+        Sample s = since();
+        double capacity = capacityHours.sum() - s.capacityHours;
+        return capacity > 0 ? (dockHours.sum() - s.dockHours) / capacity : 0.0;
+    }
+    public double getHogoutsPerSimHour() {
+        Sample s = since();
+        double hours = simHours.sum() - s.simHours;
+        return hours > 0 ? (hogouts.sum() - s.hogouts) / hours : 0.0;
+    }
+    public double getTimeInSystemP50() {
+        return timeIn.quantile( .50 );
+    }
+    public double getTimeInSystemP95() {
+        return timeIn.quantile( .95 );
+    }
+    public double getTimeInSystemP99() {
+        return timeIn.quantile( .99 );
+    }
+    public double getTimeInQueueP95() {
+        return timeInQ.quantile( .95 );
+    }
+    /* END */
+}
@@ -0,0 +1,20 @@
+package com.trainsim;
+
+// The live metrics as seen through JMX, under com.trainsim:type=Metrics
+public interface MetricsMXBean {
+    long getEvents();
+    long getTrainsArrived();
+    long getTrainsDeparted();
+    long getHogouts();
+    double getSimHours();
+    int getRunningSims();
+    long getTrainsInQueue();
+    double getEventsPerSecond();
+    double getSimHoursPerSecond();
+    double getDockUtilization();
+    double getHogoutsPerSimHour();
+    double getTimeInSystemP50();
+    double getTimeInSystemP95();
+    double getTimeInSystemP99();
+    double getTimeInQueueP95();
+}
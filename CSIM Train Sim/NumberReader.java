@@ -0,0 +1,132 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+// Reads whitespace separated doubles from a file. The bytes are parsed in
+// place out of a reused buffer, so no String is made per line or per value.
+// Used for files that can't be mapped, like pipes and gzip files, which
+// are inflated as they are read when their name ends in ".gz".
+class NumberReader implements ValueReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final String file; // Location of the file, to open it again
+    private final boolean gzip; // The file is gzip compressed
+    private ReadableByteChannel channel; // The file being read
+    private final ByteBuffer buf = ByteBuffer.allocate( BUFFER_SIZE );
+    private boolean eof = false; // Nothing left to read from the channel
+    private long inflated = 0; // Bytes read out of a gzip file
+
+    /*
+    Parameter(1): File location of the values
+    */
+    NumberReader( String file ) throws IOException {
+        this.file = file;
+        gzip = isGzip( file );
+        channel = open();
+        buf.limit( 0 );
+    }
+
+    static boolean isGzip( String file ) {
+        return file.endsWith( ".gz" );
+    }
+
+    private ReadableByteChannel open() throws IOException {
+        FileInputStream in = new FileInputStream( file );
+        if( !gzip )
+            return in.getChannel();
+        try {
+            return Channels.newChannel( new GZIPInputStream( in, BUFFER_SIZE ) );
+        } catch( IOException e ) {
+            in.close();
+            throw new IOException( file + " is not a gzip file", e );
+        }
+    }
+
+    // Return the next value in the file, NaN if the file is empty
+    public double next() throws IOException {
+        // Skip the separators in front of the value
+        while( true ) {
+            while( buf.hasRemaining() && isSpace( buf.get( buf.position() ) ) )
+                buf.position( buf.position() + 1 );
+            if( buf.hasRemaining() ) break;
+            if( !fill() ) return Double.NaN;
+        }
+        // Find the end of the value, refilling if it runs off the buffer
+        int end = buf.position();
+        while( true ) {
+            while( end < buf.limit() && !isSpace( buf.get( end ) ) )
+                end++;
+            if( end < buf.limit() || eof ) break;
+            int offset = end - buf.position();
+            if( !fill() ) {
+                end = buf.limit();
+                break;
+            }
+            end = buf.position() + offset;
+        }
+        double value = DoubleParser.parse( buf, buf.position(), end );
+        buf.position( end );
+        return value;
+    }
+
+    // Move what is left to the front of the buffer and read more after it
+    // Return false if no more bytes could be read
+    private boolean fill() throws IOException {
+        if( eof ) return false;
+        buf.compact();
+        if( !buf.hasRemaining() ) throw new IOException( "Value longer than buffer" );
+        int n = channel.read( buf );
+        buf.flip();
+        if( n > 0 )
+            inflated += n;
+        if( n < 0 ) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    // The position is a file offset, of the inflated bytes for a gzip
+    // file, and pipes have none
+    public long position() throws IOException {
+        if( gzip )
+            return inflated - buf.remaining();
+        try {
+            return ((FileChannel) channel).position() - buf.remaining();
+        } catch( IOException e ) {
+            throw new IOException( "Cannot checkpoint a reader of a pipe", e );
+        }
+    }
+
+    // A gzip file can only be read from its start, so it is opened again
+    // and inflated up to the position
+    public void seek( long position ) throws IOException {
+        buf.limit( 0 );
+        eof = false;
+        if( !gzip ) {
+            ((FileChannel) channel).position( position );
+            return;
+        }
+        channel.close();
+        channel = open();
+        inflated = 0;
+        while( inflated < position ) {
+            if( !fill() )
+                throw new IOException( file + " ends before " + position );
+            buf.position( buf.limit() );
+        }
+        buf.position( buf.limit() - (int) (inflated - position) );
+    }
+
+    static boolean isSpace( byte c ) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,337 @@
+package com.trainsim;
+
+import java.io.*;
+
+// Runs one simulation of the unloading dock with the same blocking process
+// code as the CSIM engine in TrainSim, a thread per Train and Crew, but on
+// the Scheduler's clock instead of CSIM's. Only one process runs at a time
+// and every wait and wake-up follows the CSIM rules, so the trace and
+// statistics match the other two engines. The processes run on virtual
+// threads where the JDK has them, which keeps very congested yards, with
+// thousands of trains waiting at once, cheap in memory and thread switches.
+class ProcessSim {
+    enum CrewStat { ONCLOCK, HOGGED }; // Crew statuses
+    enum TrainStat { INQ, INDOCK }; // Train statuses
+    private final PrintStream out; // Where this sim prints its statistics to, or null
+    private final TraceSink trace; // Where this sim's event trace goes
+    private final TrainSimUtil util; // Used to generate or grab next train/crew value
+    private final double simTime; // Max simulation time
+    private final boolean premade; // Schedule holds arrival, not inter-arrival, times
+    private final Scheduler scheduler = new Scheduler(); // Clock and calendar of the sim
+    private Metrics.Recorder metrics; // Live metrics, null if not recorded
+    private StateLog states; // Log of the state changes, null if not logged
+    private boolean endSim = false; // Flag used to stop simulation
+    private int trainId = 0; // Next Train id
+    private int crewId = 0; // Next Crew id
+    private final Yard<Train> yard; // The unloading docks
+    private final CrewPool<Crew> pool; // The replacement crews
+    private final TrainStats stats;
+    private final Scheduler.Flag lastTrain = new Scheduler.Flag( scheduler ); // Ends a sim
+
+    /*
+    Parameter(1): Stream the statistics are printed to, null to print nothing
+    Parameter(2): Sink of the event trace
+    Parameter(3): Source of the train and crew values
+    Parameter(4): Max simulation time
+    Parameter(5): True if 'util' reads a schedule of exact arrival times
+    Parameter(6): Number of unloading docks
+    Parameter(7): How trains are given docks
+    Parameter(8): Number of replacement crews, 0 for no limit
+    Parameter(9): Steady-state estimate that stops the arrivals early, or null
+    */
+    ProcessSim( PrintStream out, TraceSink trace, TrainSimUtil util, double simTime,
+            boolean premade, int docks, Yard.Policy policy, int crews, BatchMeans steady ) {
+        this.out = out;
+        this.trace = trace;
+        this.util = util;
+        this.simTime = simTime;
+        this.premade = premade;
+        yard = new Yard<Train>( docks, policy );
+        pool = new CrewPool<Crew>( crews );
+        stats = new TrainStats( docks, steady );
+    }
+
+    // Record the live metrics of the sim into 'm'
+    void metrics( Metrics.Recorder m ) {
+        metrics = m;
+    }
+
+    // Log every change of the queue, dock and crew states to 's'
+    void states( StateLog s ) {
+        states = s;
+    }
+
+    // Run the sim to its end and return its statistics
+    TrainStats run() throws IOException {
+        scheduler.run( new Sim() );
+        return stats;
+    }
+
+    // Time the sim ended at, once run() returned
+    double clock() {
+        return scheduler.clock();
+    }
+
+    // Simulation class used to simulate the unloading dock
+    private final class Sim extends Scheduler.Proc {
+        Sim() {
+            super( ProcessSim.this.scheduler );
+        }
+        protected void body() throws IOException {
+            // start generating train arrivals
+            add( new Gen() );
+            // wait till last train arrival (based on sim time)
+            lastTrain.untimed_wait();
+            // Fixes the error of not waiting for last departure
+            hold( 10.0 );
+            trace.ended( clock() );
+            if( states != null )
+                states.end( clock() );
+            // The trace has to be out before the statistics
+            trace.flush();
+            if( out != null )
+                stats.print( out, clock() );
+            if( metrics != null )
+                metrics.close();
+            // Draws what is left of the controls if the run stopped early
+            stats.controls( util.controls() );
+            // Closes files if needed to
+            util.finalize();
+            trace.close();
+            if( states != null )
+                states.close();
+        }
+    }
+
+    // Generate train arrivals class
+    private final class Gen extends Scheduler.Proc {
+        Gen() {
+            super( ProcessSim.this.scheduler );
+        }
+        protected void body() throws IOException {
+            while( true ) {
+                // Create a new train
+                Train t = new Train();
+                // If train can't be made simTime is up or file is empty
+                if( endSim ) break;
+                // Hold inter arrival time amount till next train
+                hold( t.iarTime );
+                // Start the trains process
+                add( t );
+            }
+        }
+    }
+
+    // Train class
+    private final class Train extends Scheduler.Proc {
+        private final int id; // Train id
+        private double startTime; // Time the train starts in the system
+        private double endQTime; // Time the train left the queue
+        private double iarTime; // This trains inter-arrival time
+        private double unloadTime; // Time it takes to unload the train
+        private double cClock; // Crews remaining hours
+        private TrainStat status; // Current status of the train
+        private Crew crew; // The connected crew process
+        private Yard.Ticket<Train> ticket; // The trains place in the yard
+        private double gotDock; // Time the train got its dock
+        private final Scheduler.Flag eHogout = new Scheduler.Flag( scheduler ); // hogout event
+        private final Scheduler.Flag eNewCrew = new Scheduler.Flag( scheduler ); // new crew event
+        private final Scheduler.Flag eGotDock = new Scheduler.Flag( scheduler ); // given a dock event
+        Train() throws IOException {
+            super( ProcessSim.this.scheduler );
+            id = trainId++;
+            // If Sim time is up, schedule file is empty or the run reached
+            // steady state, signal for endSim
+            if( !util.nextTrain() || simTime < clock() || stats.isSteady() ) {
+                endSim = true;
+                return;
+            }
+            // Used to adjust for the schedule file having exact arrival times
+            // and not inter-arrival times
+            iarTime = premade ? util.arrival() - clock() : util.arrival();
+            unloadTime = util.unload();
+            cClock = util.crewHours();
+        }
+
+        protected void body() {
+            double dockIdle = 0.0; // Used for dock idle stats
+            double dockHog = 0.0; // Used for dock hogged stats
+            double start = 0.0; // Used to mark a start point to record from
+            /* TRAIN ARRIVES */
+            stats.arrival( unloadTime );
+            startTime = clock();
+            crew = new Crew( this, cClock );
+            add( crew );
+            trace.arrival( clock(), id, unloadTime, crew.id, crew.timeLeft, yard.queued() );
+            /* TRAIN ENTER QUEUE */
+            status = TrainStat.INQ;
+            ticket = yard.arrive( this, crew.hogoutAt );
+            if( metrics != null )
+                metrics.arrival( clock(), yard.queued() );
+            if( states != null ) {
+                states.queue( clock(), yard.queued() );
+                states.crew( clock(), id, StateLog.BUSY );
+            }
+            if( ticket.dock() < 0 )
+                eGotDock.untimed_wait();
+            gotDock = clock();
+            dockState( crew.status == CrewStat.HOGGED ? StateLog.HOGGED : StateLog.BUSY );
+            // Hogouts and crews that came while in the queue are over with,
+            // only those from here on are waited for
+            eHogout.clear();
+            eNewCrew.clear();
+            // Train is stuck in queue till the new crew arrives
+            if( crew.status == CrewStat.HOGGED ) {
+                start = clock();
+                trace.stuckInQ( clock(), id, crew.id );
+                if( metrics != null )
+                    metrics.event( clock() );
+                eNewCrew.untimed_wait();
+                dockIdle += (clock() - start);
+            }
+            endQTime = clock();
+            /* IN DOCK */
+            trace.enterDock( clock(), id, unloadTime, crew.id, crew.timeLeft );
+            if( metrics != null )
+                metrics.event( clock() );
+            status = TrainStat.INDOCK;
+            // If crew hogs out during unloading, stop unloading and wait for a new crew.
+            // After new crew arrives continue the remaining unloading
+            if( eHogout.timed_wait( unloadTime ) ) {
+                start = clock();
+                unloadTime -= (clock() - endQTime);
+                eNewCrew.untimed_wait();
+                dockIdle += (clock() - start);
+                dockHog += (clock() - start);
+                hold( unloadTime );
+            }
+            /* DEPARTING */
+            crew.depart();
+            trace.departure( clock(), id, yard.queued() );
+            // Check for new max queue size
+            stats.queue( yard.queued() );
+            // Hand the dock to the next train
+            Yard.Ticket<Train> next = yard.depart( ticket.dock() );
+            if( next != null )
+                next.train.eGotDock.set();
+            stats.departure( clock() - startTime, endQTime - startTime, dockIdle, dockHog,
+                crew.hogoutCount, ticket.dock(), clock() - gotDock );
+            if( metrics != null )
+                metrics.departure( clock(), clock() - startTime, endQTime - startTime,
+                    clock() - gotDock, yard.queued() );
+            if( states != null ) {
+                states.crew( clock(), id, StateLog.GONE );
+                states.dock( clock(), ticket.dock(), StateLog.IDLE );
+                states.queue( clock(), yard.queued() );
+            }
+            // Send out last train event when end sim flag is raised
+            if( endSim && yard.trains() == 0 )
+                lastTrain.set();
+        }
+
+        // The crew was replaced, which moves the train in a CREW queue
+        void crewChanged() {
+            if( ticket != null && ticket.dock() < 0 )
+                yard.rekey( ticket, crew.hogoutAt );
+        }
+
+        // Log the state of the train's dock, if it holds one
+        void dockState( int state ) {
+            if( states != null && ticket != null && ticket.dock() >= 0 )
+                states.dock( clock(), ticket.dock(), state );
+        }
+    }
+
+    // The crew class process
+    private final class Crew extends Scheduler.Proc {
+        private final Train train; // Reference to its train
+        private int id; // Crew id
+        private CrewStat status = CrewStat.ONCLOCK; // Crew status
+        private double timeLeft; // Time till crew hogs out
+        private int hogoutCount = 0; // count how many times this train had a crew hogout
+        private boolean departed = false; // If the crew has departed or not
+        private double hogoutAt; // Time the crew on the clock hogs out
+        private boolean fromPool = false; // The crew on the clock was taken from the pool
+        private Scheduler.Flag ePoolCrew; // pool crew handed over event
+        Crew( Train t, double tLeft ) {
+            super( ProcessSim.this.scheduler );
+            train = t;
+            timeLeft = tLeft;
+            id = crewId++;
+            hogoutAt = clock() + tLeft;
+        }
+
+        protected void body() throws IOException {
+            while( true ) {
+                // Wait till crew has to hogout
+                hold( timeLeft );
+                // if train departed then don't worry about hogging out
+                if( departed ) break;
+                if( train.status == TrainStat.INQ )
+                    trace.hogoutInQ( clock(), train.id, id );
+                if( train.status == TrainStat.INDOCK )
+                    trace.hogoutInDock( clock(), train.id, id );
+                status = CrewStat.HOGGED;
+                hogoutCount++;
+                if( metrics != null )
+                    metrics.hogout( clock() );
+                if( states != null ) {
+                    states.crew( clock(), train.id, StateLog.HOGGED );
+                    train.dockState( StateLog.HOGGED );
+                }
+                id = crewId++;
+                train.eHogout.set();
+                /* WAIT FOR A CREW FROM THE POOL */
+                release();
+                double asked = clock();
+                if( !pool.take( this ) ) {
+                    if( ePoolCrew == null )
+                        ePoolCrew = new Scheduler.Flag( scheduler );
+                    ePoolCrew.untimed_wait();
+                }
+                if( pool.limited() ) {
+                    fromPool = true;
+                    stats.crewWait.record( clock() - asked );
+                    // The train left while waiting, nobody needs the crew
+                    if( departed ) {
+                        release();
+                        break;
+                    }
+                }
+                // Get new crew arrival time
+                double timeTillAr = util.getNextCrewArrival();
+                timeLeft = (12.0 - timeTillAr);
+                /* WAIT FOR NEW CREW */
+                hold( timeTillAr );
+                trace.crewArrival( clock(), train.id, id );
+                if( metrics != null )
+                    metrics.event( clock() );
+                if( states != null && !departed ) {
+                    states.crew( clock(), train.id, StateLog.BUSY );
+                    train.dockState( StateLog.BUSY );
+                }
+                status = CrewStat.ONCLOCK;
+                hogoutAt = clock() + timeLeft;
+                train.crewChanged();
+                if( departed )
+                    release();
+                train.eNewCrew.set();
+            }
+        }
+
+        void depart() {
+            departed = true;
+            if( status == CrewStat.ONCLOCK )
+                release();
+        }
+
+        // Put a crew taken from the pool back and hand it to the next in line
+        private void release() {
+            if( !fromPool ) return;
+            fromPool = false;
+            Crew next = pool.give();
+            if( next != null )
+                next.ePoolCrew.set();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.trainsim;
+
+// Estimates quantiles of positive values in bounded memory. Each value is
+// counted in the bucket k with gamma^(k-1) < x <= gamma^k, so any quantile
+// comes back within 'accuracy' of the true value, relative to it. Merging
+// adds the bucket counts, which loses nothing. When more than MAX_BUCKETS
+// buckets are needed the lowest ones are folded together, so values over
+// about 1e17 times (at 1%) smaller than the largest lose their accuracy.
+class QuantileSketch implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_BUCKETS = 2048; // Most buckets kept
+    private static final double MIN_VALUE = 1e-9; // Smaller values count as 0
+    private final double accuracy; // Relative error of the quantiles
+    private final double gamma; // Ratio of neighbouring bucket bounds
+    private final double logGamma;
+    private long[] counts = new long[64]; // Count of each bucket in use
+    private int offset = 0; // Bucket index of counts[0]
+    private int lo = 0; // Lowest bucket in use
+    private int hi = -1; // Highest bucket in use, below lo if none
+    private long zeros = 0; // Values too small for a bucket
+    private long count = 0; // All recorded values
+
+    /*
+    Parameter(1): Relative error of the quantiles, like 0.01 for 1%
+    */
+    QuantileSketch( double accuracy ) {
+        this.accuracy = accuracy;
+        gamma = (1 + accuracy) / (1 - accuracy);
+        logGamma = Math.log( gamma );
+    }
+
+    void record( double x ) {
+        count++;
+        if( x < MIN_VALUE )
+            zeros++;
+        else
+            add( (int) Math.ceil( Math.log( x ) / logGamma ), 1 );
+    }
+
+    // Add every value recorded into 'o' to this one
+    void merge( QuantileSketch o ) {
+        if( o.accuracy != accuracy )
+            throw new IllegalArgumentException( "merge: sketches differ in accuracy" );
+        count += o.count;
+        zeros += o.zeros;
+        for( int k = o.lo; k <= o.hi; ++k )
+            if( o.counts[k - o.offset] != 0 )
+                add( k, o.counts[k - o.offset] );
+    }
+
+    long count() {
+        return count;
+    }
+
+    // Return the value with a fraction 'q' of the values below it,
+    // 0 if nothing was recorded
+    double quantile( double q ) {
+        if( count == 0 ) return 0.0;
+        double rank = q * (count - 1);
+        long seen = zeros;
+        if( seen > rank ) return 0.0;
+        for( int k = lo; k <= hi; ++k ) {
+            seen += counts[k - offset];
+            if( seen > rank )
+                return 2 * Math.pow( gamma, k ) / (gamma + 1);
+        }
+        return 2 * Math.pow( gamma, hi ) / (gamma + 1);
+    }
+
+    // Add 'n' to bucket 'k'
+    private void add( int k, long n ) {
+        if( hi < lo ) {
+            lo = hi = k;
+            offset = k - counts.length / 2;
+        }
+        else if( k > hi && k - lo >= MAX_BUCKETS ) {
+            // Fold the lowest buckets into the lowest one kept
+            int newLo = k - MAX_BUCKETS + 1;
+            long folded = 0;
+            for( int i = lo; i < newLo && i <= hi; ++i ) {
+                folded += counts[i - offset];
+                counts[i - offset] = 0;
+            }
+            lo = newLo;
+            cover( lo, k );
+            counts[lo - offset] += folded;
+        }
+        else if( k < lo && hi - k >= MAX_BUCKETS ) {
+            k = hi - MAX_BUCKETS + 1;
+        }
+        cover( Math.min( lo, k ), Math.max( hi, k ) );
+        lo = Math.min( lo, k );
+        hi = Math.max( hi, k );
+        counts[k - offset] += n;
+    }
+
+    // Grow or move 'counts' so it holds buckets 'from' to 'to'
+    private void cover( int from, int to ) {
+        if( from >= offset && to < offset + counts.length ) return;
+        int span = to - from + 1;
+        long[] grown = new long[Math.max( counts.length, Math.min( 2 * span, MAX_BUCKETS + 64 ) )];
+        int newOffset = from - (grown.length - span) / 2;
+        for( int i = Math.max( lo, from ); i <= Math.min( hi, to ); ++i )
+            grown[i - newOffset] = counts[i - offset];
+        counts = grown;
+        offset = newOffset;
+    }
+}
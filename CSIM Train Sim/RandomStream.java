@@ -0,0 +1,126 @@
+package com.trainsim;
+
+// One stream of random numbers, a xoshiro256** generator. A stream belongs
+// to a single replication, so drawing takes no locks or atomics, and the
+// bulk draws fill primitive buffers in one tight loop. jump() and
+// longJump() move the stream 2^128 and 2^192 draws ahead, which is how
+// RandomStreams cuts the sequence of a master seed into substreams that
+// never overlap. An antithetic stream draws 1 - u for every u its original
+// draws, exactly mirrored on the grid of 2^53 doubles in [0, 1).
+final class RandomStream implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final long[] JUMP = { 0x180EC6D33CFD0ABAL, 0xD5A61266F0C9392CL,
+        0xA9582618E03FC9AAL, 0x39ABDC4529B1661CL };
+    private static final long[] LONG_JUMP = { 0x76E15D3EFEFDCBBFL, 0xC5004E441C522FB3L,
+        0x77710069854EE241L, 0x39109BB02ACBE635L };
+    private long s0, s1, s2, s3; // Generator state
+    private boolean mirror = false; // Draw the antithetic of every number
+
+    /*
+    Parameter(1): Seed, spread over the state by SplitMix64
+    */
+    RandomStream( long seed ) {
+        s0 = mix( seed += 0x9E3779B97F4A7C15L );
+        s1 = mix( seed += 0x9E3779B97F4A7C15L );
+        s2 = mix( seed += 0x9E3779B97F4A7C15L );
+        s3 = mix( seed + 0x9E3779B97F4A7C15L );
+    }
+
+    private RandomStream( RandomStream o ) {
+        s0 = o.s0;
+        s1 = o.s1;
+        s2 = o.s2;
+        s3 = o.s3;
+        mirror = o.mirror;
+    }
+
+    // A stream that draws the same numbers as this one from here on
+    RandomStream copy() {
+        return new RandomStream( this );
+    }
+
+    // A stream that draws the antithetic numbers of this one from here on
+    RandomStream antithetic() {
+        RandomStream a = new RandomStream( this );
+        a.mirror = !mirror;
+        return a;
+    }
+
+    long nextLong() {
+        long result = Long.rotateLeft( s1 * 5, 7 ) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft( s3, 45 );
+        return result;
+    }
+
+    // Uniform on [0, 1)
+    double nextDouble() {
+        long k = nextLong() >>> 11;
+        if( mirror )
+            k = (1L << 53) - 1 - k;
+        return k * 0x1.0p-53;
+    }
+
+    // Uniform on [a, b)
+    double uniform( double a, double b ) {
+        return a + (b - a) * nextDouble();
+    }
+
+    // Exponential with mean 'mean'
+    double exponential( double mean ) {
+        return -mean * Math.log( 1.0 - nextDouble() );
+    }
+
+    // Fill the first 'n' values of 'dst' with uniform(a, b) draws
+    void uniform( double[] dst, int n, double a, double b ) {
+        for( int i = 0; i < n; ++i )
+            dst[i] = a + (b - a) * nextDouble();
+    }
+
+    // Fill the first 'n' values of 'dst' with exponential(mean) draws
+    void exponential( double[] dst, int n, double mean ) {
+        for( int i = 0; i < n; ++i )
+            dst[i] = -mean * Math.log( 1.0 - nextDouble() );
+    }
+
+    // Move 2^128 draws ahead
+    void jump() {
+        jump( JUMP );
+    }
+
+    // Move 2^192 draws ahead
+    void longJump() {
+        jump( LONG_JUMP );
+    }
+
+    private void jump( long[] poly ) {
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+        for( long word : poly ) {
+            for( int b = 0; b < 64; ++b ) {
+                if( (word & (1L << b)) != 0 ) {
+                    t0 ^= s0;
+                    t1 ^= s1;
+                    t2 ^= s2;
+                    t3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = t0;
+        s1 = t1;
+        s2 = t2;
+        s3 = t3;
+    }
+
+    // SplitMix64 finalizer
+    static long mix( long z ) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,61 @@
+package com.trainsim;
+
+import java.util.ArrayList;
+
+// Every random stream of a run, derived from one master seed, so the run
+// can be replayed exactly from that seed alone. Replication r starts r long
+// jumps (2^192 draws each) into the master sequence and its field streams
+// are one jump (2^128 draws) apart from there, so no two streams of any
+// two replications can overlap. The starts are kept once found, so asking
+// for the replications in any order costs one long jump per new one.
+final class RandomStreams {
+    static final int ARRIVAL = 0; // Train inter-arrival times
+    static final int UNLOAD = 1; // Train unload times
+    static final int CREW = 2; // Crew hours left on arrival
+    static final int REPLACE = 3; // Replacement crew travel times
+    static final int STREAMS = 4; // Streams of a replication
+    private final long master; // Seed of everything
+    private final ArrayList<RandomStream> starts = new ArrayList<RandomStream>(); // Of each replication
+
+    /*
+    Parameter(1): Master seed of the run
+    */
+    RandomStreams( long master ) {
+        this.master = master;
+        starts.add( new RandomStream( master ) );
+    }
+
+    long master() {
+        return master;
+    }
+
+    // Streams of replication 'r' of a run of antithetic pairs: replications
+    // 2k and 2k+1 draw the numbers of replication k and their antithetics
+    RandomStream[] antithetic( int r ) {
+        RandomStream[] streams = replication( r / 2 );
+        if( r % 2 == 1 )
+            for( int i = 0; i < STREAMS; ++i )
+                streams[i] = streams[i].antithetic();
+        return streams;
+    }
+
+    // Fresh streams of replication 'r', indexed by ARRIVAL, UNLOAD... Every
+    // call returns streams that draw the same numbers
+    RandomStream[] replication( int r ) {
+        RandomStream s;
+        synchronized( starts ) {
+            while( starts.size() <= r ) {
+                RandomStream next = starts.get( starts.size() - 1 ).copy();
+                next.longJump();
+                starts.add( next );
+            }
+            s = starts.get( r ).copy();
+        }
+        RandomStream[] streams = new RandomStream[STREAMS];
+        for( int i = 0; i < STREAMS; ++i ) {
+            streams[i] = s.copy();
+            s.jump();
+        }
+        return streams;
+    }
+}
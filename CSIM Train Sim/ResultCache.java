@@ -0,0 +1,211 @@
+package com.trainsim;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Results of replications kept on disk from one run to the next, so a
+// scenario run again, or with more replications than before, simulates only
+// the replications it has not run yet. An entry holds the statistics of one
+// replication and the hours it ran, everything its printStats() and its
+// estimate come from. It is named by the SHA-256 of what its results depend
+// on: the sim time, yard, ci and either the generated value ranges with
+// the master seed or the content of the schedule and travel times files,
+// and the replication's number. The engine is left out, as every engine
+// gives the same results. Entries are dropped least recently used first
+// once their files are over the size asked for, a hit touching its file so
+// the order holds from one run to the next. Entries are written like
+// checkpoints, so runs sharing the directory never read half of one, and
+// one that can't be read is a miss.
+class ResultCache {
+    private static final String VERSION = "3"; // Changed when an entry's meaning does
+    private static final String SUFFIX = ".rep"; // Of every entry file
+    private final File dir;
+    private final long maxBytes; // Most bytes of entries kept
+    private final String scenario; // Canonical scenario of every entry of this run
+    private final LinkedHashMap<String, Long> files =
+        new LinkedHashMap<String, Long>( 64, .75f, true ); // Entry sizes, least recently used first
+    private long bytes = 0; // Size of 'files' together
+    private int hits = 0;
+    private int misses = 0;
+
+    // One replication's results
+    static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final TrainStats stats;
+        final double hours; // Time the replication ended at
+        Entry( TrainStats stats, double hours ) {
+            this.stats = stats;
+            this.hours = hours;
+        }
+    }
+
+    /*
+    Parameter(1): Directory of the entries, made if it does not exist
+    Parameter(2): Most bytes of entries kept in it
+    Parameter(3): The scenario, from scenario()
+    */
+    ResultCache( String dir, long maxBytes, String scenario ) throws IOException {
+        this.dir = new File( dir );
+        this.maxBytes = maxBytes;
+        this.scenario = scenario;
+        this.dir.mkdirs();
+        File[] found = this.dir.listFiles( new FilenameFilter() {
+            public boolean accept( File d, String name ) {
+                return name.endsWith( SUFFIX );
+            }
+        } );
+        if( found == null )
+            throw new IOException( dir + " is not a directory" );
+        // Oldest first, as every hit touched its file
+        Arrays.sort( found, new Comparator<File>() {
+            public int compare( File a, File b ) {
+                return Long.compare( a.lastModified(), b.lastModified() );
+            }
+        } );
+        for( File f : found ) {
+            files.put( f.getName(), f.length() );
+            bytes += f.length();
+        }
+    }
+
+    // The cache of the scenario of 'c', which must have a cache directory
+    static ResultCache open( ScenarioConfig c ) throws IOException {
+        String scenario = c.premade()
+            ? scenario( c.scheduleFile, c.travelFile, c.simTime, c.docks, c.policy, c.crews, c.ci )
+            : scenario( c.arrival, c.unloadA, c.unloadB, c.crewA, c.crewB, c.replaceA,
+                c.replaceB, c.simTime, c.docks, c.policy, c.crews, c.ci, c.antithetic, c.seed );
+        return new ResultCache( c.cacheDir, c.cacheBytes, scenario );
+    }
+
+    // The canonical scenario of generated values
+    static String scenario( double arrival, double unloadA, double unloadB, double crewA,
+            double crewB, double replaceA, double replaceB, double simTime, int docks,
+            Yard.Policy policy, int crews, double ci, boolean antithetic, long seed ) {
+        return "generated arrival=" + arrival + " unload=" + unloadA + "," + unloadB
+            + " crew=" + crewA + "," + crewB + " replace=" + replaceA + "," + replaceB
+            + " antithetic=" + antithetic + " seed=" + seed
+            + yard( simTime, docks, policy, crews, ci );
+    }
+
+    // The canonical scenario of values read from files, by their content
+    static String scenario( String schedule, String travel, double simTime, int docks,
+            Yard.Policy policy, int crews, double ci ) throws IOException {
+        return "premade schedule=" + hex( digest( schedule ) ) + " travel="
+            + hex( digest( travel ) ) + yard( simTime, docks, policy, crews, ci );
+    }
+
+    private static String yard( double simTime, int docks, Yard.Policy policy, int crews,
+            double ci ) {
+        return " simTime=" + simTime + " docks=" + docks + " policy=" + policy
+            + " crews=" + crews + " ci=" + ci;
+    }
+
+    // Results of replication 'r', null if they are not in the cache
+    synchronized Entry get( int r ) {
+        String name = key( r );
+        File f = new File( dir, name );
+        if( !f.isFile() ) {
+            misses++;
+            return null;
+        }
+        try {
+            Entry e = (Entry) Checkpoint.read( f.getPath() );
+            f.setLastModified( System.currentTimeMillis() );
+            if( files.get( name ) == null )
+                add( name, f.length() );
+            hits++;
+            return e;
+        } catch( IOException | ClassCastException e ) {
+            // Of another build, or cut short by a full disk
+            remove( name );
+            misses++;
+            return null;
+        }
+    }
+
+    // Keep the results of replication 'r', dropping the least recently used
+    // entries while they are over the size
+    synchronized void put( int r, TrainStats stats, double hours ) throws IOException {
+        String name = key( r );
+        File f = new File( dir, name );
+        Checkpoint.write( new Entry( stats, hours ), f.getPath() );
+        Long old = files.remove( name );
+        if( old != null )
+            bytes -= old;
+        add( name, f.length() );
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while( bytes > maxBytes && it.hasNext() ) {
+            Map.Entry<String, Long> oldest = it.next();
+            if( oldest.getKey().equals( name ) ) continue;
+            new File( dir, oldest.getKey() ).delete();
+            bytes -= oldest.getValue();
+            it.remove();
+        }
+    }
+
+    // How many replications were found, of how many asked for
+    synchronized String summary() {
+        return String.format( "Result cache: %d of %d replications found in %s, %d entries "
+            + "of %.0f kB", hits, hits + misses, dir, files.size(), bytes / 1024.0 );
+    }
+
+    private void add( String name, long size ) {
+        files.put( name, size );
+        bytes += size;
+    }
+
+    private void remove( String name ) {
+        new File( dir, name ).delete();
+        Long size = files.remove( name );
+        if( size != null )
+            bytes -= size;
+    }
+
+    // File name of the entry of replication 'r'
+    private String key( int r ) {
+        MessageDigest sha = sha256();
+        try {
+            sha.update( ("trainsim " + VERSION + " " + scenario + " replication=" + r)
+                .getBytes( "UTF-8" ) );
+        } catch( UnsupportedEncodingException e ) {
+            throw new IllegalStateException( e );
+        }
+        return hex( sha.digest() ) + SUFFIX;
+    }
+
+    // SHA-256 of the content of 'file'
+    private static byte[] digest( String file ) throws IOException {
+        MessageDigest sha = sha256();
+        InputStream in = new FileInputStream( file );
+        try {
+            byte[] buf = new byte[1 << 16];
+            for( int n = in.read( buf ); n >= 0; n = in.read( buf ) )
+                sha.update( buf, 0, n );
+        } finally {
+            in.close();
+        }
+        return sha.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch( NoSuchAlgorithmException e ) {
+            // Every Java platform has it
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static String hex( byte[] b ) {
+        StringBuilder s = new StringBuilder( 2 * b.length );
+        for( byte x : b )
+            s.append( String.format( "%02x", x ) );
+        return s.toString();
+    }
+}
@@ -0,0 +1,213 @@
+package com.trainsim;
+
+// Everything a Simulation needs to run a scenario, fixed once built. The
+// values default to those of "TrainSim -e heap" with no arguments, and a
+// scenario given a seed draws the same numbers as "TrainSim -e heap -seed
+// <seed>", replication by replication. Build one with
+//   ScenarioConfig.builder().arrival( 8.0 ).docks( 2 ).seed( 1 ).build()
+public final class ScenarioConfig {
+    final double arrival; // Train inter-arrival rate
+    final double simTime; // Max simulation time
+    final double unloadA, unloadB; // Unload time range
+    final double crewA, crewB; // Crew hours left range
+    final double replaceA, replaceB; // Replacement crew travel time range
+    final String scheduleFile; // Schedule of trains file, null to generate values
+    final String travelFile; // Crew travel times file, null to generate values
+    final double streamGap; // Longest gap of a streamed schedule, -1 to read it in step
+    final long seed; // Master seed of every replication
+    final int replications; // Replications, or the most of them with 'ci'
+    final int docks; // Unloading docks in the yard
+    final Yard.Policy policy; // How trains are given docks
+    final int crews; // Replacement crews in the pool, 0 for no limit
+    final double ci; // Relative half-width to stop at, 0 for fixed runs
+    final boolean antithetic; // Run the replications as antithetic pairs
+    final boolean controlVariates; // Correct the estimate with control variates
+    final String cacheDir; // Directory of the ResultCache, null for no cache
+    final long cacheBytes; // Most bytes the cache keeps
+
+    private ScenarioConfig( Builder b ) {
+        arrival = b.arrival;
+        simTime = b.simTime;
+        unloadA = b.unloadA;
+        unloadB = b.unloadB;
+        crewA = b.crewA;
+        crewB = b.crewB;
+        replaceA = b.replaceA;
+        replaceB = b.replaceB;
+        scheduleFile = b.scheduleFile;
+        travelFile = b.travelFile;
+        streamGap = b.streamGap;
+        seed = b.seed;
+        replications = b.replications;
+        docks = b.docks;
+        policy = b.policy;
+        crews = b.crews;
+        ci = b.ci;
+        antithetic = b.antithetic;
+        controlVariates = b.controlVariates;
+        cacheDir = b.cacheDir;
+        cacheBytes = b.cacheBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // A builder starting from this scenario, to make one that differs in a few values
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.arrival = arrival;
+        b.simTime = simTime;
+        b.unloadA = unloadA;
+        b.unloadB = unloadB;
+        b.crewA = crewA;
+        b.crewB = crewB;
+        b.replaceA = replaceA;
+        b.replaceB = replaceB;
+        b.scheduleFile = scheduleFile;
+        b.travelFile = travelFile;
+        b.streamGap = streamGap;
+        b.seed = seed;
+        b.replications = replications;
+        b.docks = docks;
+        b.policy = policy;
+        b.crews = crews;
+        b.ci = ci;
+        b.antithetic = antithetic;
+        b.controlVariates = controlVariates;
+        b.cacheDir = cacheDir;
+        b.cacheBytes = cacheBytes;
+        return b;
+    }
+
+    public double arrival() { return arrival; }
+    public double simTime() { return simTime; }
+    public long seed() { return seed; }
+    public int replications() { return replications; }
+    public int docks() { return docks; }
+    public int crews() { return crews; }
+    public double ci() { return ci; }
+    public boolean antithetic() { return antithetic; }
+    public boolean controlVariates() { return controlVariates; }
+    public String scheduleFile() { return scheduleFile; }
+    public String travelFile() { return travelFile; }
+    public String policy() { return policy.name().toLowerCase(); }
+    public String cacheDir() { return cacheDir; }
+
+    // True if the train values are read from files instead of generated
+    boolean premade() {
+        return scheduleFile != null;
+    }
+
+    // True if the estimate is variance-reduced, never for read values
+    boolean reduced() {
+        return !premade() && (antithetic || controlVariates);
+    }
+
+    public static final class Builder {
+        private double arrival = 10.0;
+        private double simTime = 72000.0;
+        private double unloadA = TrainSimUtil.UNLOAD_A;
+        private double unloadB = TrainSimUtil.UNLOAD_B;
+        private double crewA = TrainSimUtil.CREW_A;
+        private double crewB = TrainSimUtil.CREW_B;
+        private double replaceA = TrainSimUtil.REPLACE_A;
+        private double replaceB = TrainSimUtil.REPLACE_B;
+        private String scheduleFile = null;
+        private String travelFile = null;
+        private double streamGap = -1.0;
+        private long seed = 0;
+        private int replications = 1;
+        private int docks = 1;
+        private Yard.Policy policy = Yard.Policy.FIRST;
+        private int crews = 0;
+        private double ci = 0.0;
+        private boolean antithetic = false;
+        private boolean controlVariates = false;
+        private String cacheDir = null;
+        private long cacheBytes = 0;
+
+        private Builder() {
+        }
+
+        public Builder arrival( double rate ) { arrival = rate; return this; }
+        public Builder simTime( double hours ) { simTime = hours; return this; }
+        public Builder unload( double a, double b ) { unloadA = a; unloadB = b; return this; }
+        public Builder crewHours( double a, double b ) { crewA = a; crewB = b; return this; }
+        public Builder replace( double a, double b ) { replaceA = a; replaceB = b; return this; }
+        public Builder seed( long s ) { seed = s; return this; }
+        public Builder replications( int n ) { replications = n; return this; }
+        public Builder docks( int n ) { docks = n; return this; }
+        public Builder crews( int n ) { crews = n; return this; }
+        public Builder ci( double relative ) { ci = relative; return this; }
+        public Builder antithetic( boolean on ) { antithetic = on; return this; }
+        public Builder controlVariates( boolean on ) { controlVariates = on; return this; }
+
+        // "first", "shortest" or "crew", like -policy
+        public Builder policy( String name ) {
+            policy = Yard.Policy.valueOf( name.toUpperCase() );
+            return this;
+        }
+
+        // Read the trains and crew travel times from files, like -s
+        public Builder schedule( String schedule, String travelTimes ) {
+            scheduleFile = schedule;
+            travelFile = travelTimes;
+            return this;
+        }
+
+        // Read the schedule files ahead on threads of their own and check
+        // their rows, with arrivals at most 'maxGap' hours apart, 0 for any
+        // gap, like -stream
+        public Builder stream( double maxGap ) {
+            streamGap = maxGap;
+            return this;
+        }
+
+        // Keep the results of every replication in 'dir', at most 'maxBytes'
+        // of them, and take those already there instead of simulating them,
+        // like -cache. Null for no cache
+        public Builder cache( String dir, long maxBytes ) {
+            cacheDir = dir;
+            cacheBytes = maxBytes;
+            return this;
+        }
+
+        // Generate the train values again, undoing schedule()
+        public Builder generated() {
+            scheduleFile = null;
+            travelFile = null;
+            streamGap = -1.0;
+            return this;
+        }
+
+        public ScenarioConfig build() {
+            if( !(simTime > 0) )
+                throw new IllegalArgumentException( "simTime must be > 0: " + simTime );
+            if( scheduleFile == null && !(arrival > 0) )
+                throw new IllegalArgumentException( "arrival must be > 0: " + arrival );
+            if( !(unloadA <= unloadB) || !(crewA <= crewB) || !(replaceA <= replaceB) )
+                throw new IllegalArgumentException( "A range ends before it starts" );
+            if( replaceB > 12.0 )
+                throw new IllegalArgumentException( "Replacement crews must arrive within 12h" );
+            if( (scheduleFile == null) != (travelFile == null) )
+                throw new IllegalArgumentException( "A schedule needs its travel times file" );
+            if( replications < 1 )
+                throw new IllegalArgumentException( "replications must be >= 1: " + replications );
+            if( antithetic && scheduleFile == null && replications % 2 != 0 )
+                throw new IllegalArgumentException( "Antithetic pairs need an even number of "
+                    + "replications: " + replications );
+            if( docks < 1 )
+                throw new IllegalArgumentException( "docks must be >= 1: " + docks );
+            if( crews < 0 )
+                throw new IllegalArgumentException( "crews must be >= 0: " + crews );
+            if( streamGap >= 0 && scheduleFile == null )
+                throw new IllegalArgumentException( "Only a schedule can be streamed" );
+            if( ci < 0 )
+                throw new IllegalArgumentException( "ci must be >= 0: " + ci );
+            if( cacheDir != null && cacheBytes <= 0 )
+                throw new IllegalArgumentException( "The cache must keep > 0 bytes: " + cacheBytes );
+            return new ScenarioConfig( this );
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.trainsim;
+
+import java.io.IOException;
+
+// Converts a text schedule or travel times file into a columnar file that
+// can be given to -s in its place and loads without any parsing
+// Usage: ScheduleConverter <text file> <columnar file>
+public class ScheduleConverter {
+    public static void main( String[] args ) throws IOException {
+        if( args.length != 2 ) {
+            System.out.println( "Usage: ScheduleConverter <text file> <columnar file>" );
+            return;
+        }
+        int rows = ColumnarFile.convert( args[0], args[1] );
+        System.out.println( "Wrote " + rows + " rows to " + args[1] );
+    }
+}
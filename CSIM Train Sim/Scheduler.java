@@ -0,0 +1,247 @@
+package com.trainsim;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+// Runs blocking, process-oriented model code the way CSIM does, one thread
+// per process, but with its own simulation clock and calendar. Only one
+// process runs at a time: the scheduler hands control to the process of
+// the first calendar entry and waits until it holds, waits on a Flag or
+// ends, so a run is as deterministic as the event calendar engine. The
+// processes run on virtual threads when the JDK has them (21 and up), so
+// a yard with thousands of trains in flight costs a small heap object per
+// train instead of a native thread, and on small-stack daemon threads
+// otherwise.
+final class Scheduler {
+    private static final long STACK = 256 * 1024; // Stack of a platform thread
+    private static final ThreadFactory VIRTUAL = virtualThreads(); // Null before JDK 21
+    private static final ThreadFactory THREADS = VIRTUAL != null ? VIRTUAL : new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+            Thread t = new Thread( null, r, "Process", STACK );
+            t.setDaemon( true );
+            return t;
+        }
+    };
+    private final PriorityQueue<Entry> calendar = new PriorityQueue<Entry>();
+    private final Semaphore back = new Semaphore( 0 ); // Released when a process yields
+    private final Set<Proc> alive =
+        Collections.synchronizedSet( Collections.newSetFromMap( new IdentityHashMap<Proc, Boolean>() ) );
+    private long next = 0; // Order given to the next entry
+    private double clock = 0.0;
+    private Proc current; // The process running
+    private Throwable failed; // What a process threw, null if none
+
+    // The factory of Thread.ofVirtual(), looked up so the tree still builds
+    // and runs on JDKs without it. Return null on those
+    private static ThreadFactory virtualThreads() {
+        try {
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            return (ThreadFactory) Class.forName( "java.lang.Thread$Builder" )
+                .getMethod( "factory" ).invoke( builder );
+        } catch( ReflectiveOperationException e ) {
+            return null;
+        }
+    }
+
+    // True if the processes run on virtual threads
+    static boolean virtual() {
+        return VIRTUAL != null;
+    }
+
+    // A resumption of 'proc' at 'time'
+    private static final class Entry implements Comparable<Entry> {
+        final double time;
+        final long order;
+        final Proc proc;
+        Entry( double time, long order, Proc proc ) {
+            this.time = time;
+            this.order = order;
+            this.proc = proc;
+        }
+        public int compareTo( Entry o ) {
+            if( time != o.time )
+                return time < o.time ? -1 : 1;
+            return Long.compare( order, o.order );
+        }
+    }
+
+    // Unwinds a process left blocked when the run ended
+    private static final class Stop extends Error {
+        private static final long serialVersionUID = 1L;
+        Stop() {
+            super( null, null, false, false );
+        }
+    }
+
+    double clock() {
+        return clock;
+    }
+
+    // Run until 'root' has ended
+    void run( Proc root ) throws IOException {
+        schedule( root, 0.0 );
+        try {
+            while( !root.done ) {
+                Entry e = calendar.poll();
+                if( e == null )
+                    throw new IllegalStateException( "nextEvent: No more events" );
+                // Skip resumptions that were replaced by a later wake-up
+                if( e.order != e.proc.pending ) continue;
+                e.proc.pending = -1;
+                clock = e.time;
+                dispatch( e.proc );
+            }
+        } finally {
+            // Unwind the processes still waiting, the run is over
+            synchronized( alive ) {
+                for( Proc p : alive )
+                    p.thread.interrupt();
+            }
+        }
+    }
+
+    // Let 'p' run until it yields
+    private void dispatch( Proc p ) throws IOException {
+        if( p.done ) return;
+        if( p.thread == null ) {
+            p.thread = THREADS.newThread( p );
+            alive.add( p );
+            p.thread.start();
+        }
+        current = p;
+        p.go.release();
+        back.acquireUninterruptibly();
+        if( failed != null ) {
+            if( failed instanceof IOException )
+                throw (IOException) failed;
+            if( failed instanceof RuntimeException )
+                throw (RuntimeException) failed;
+            throw new RuntimeException( failed );
+        }
+    }
+
+    // Resume 'p' after 'interval' hours, replacing any pending resumption
+    void schedule( Proc p, double interval ) {
+        if( interval < 0 )
+            throw new RuntimeException( "schedule: interval cannot be negative" );
+        p.pending = next;
+        calendar.add( new Entry( clock + interval, next++, p ) );
+    }
+
+    // A process: body() is its blocking model code
+    abstract static class Proc implements Runnable {
+        final Scheduler scheduler; // Runs this process
+        private final Semaphore go = new Semaphore( 0 ); // Released to let it run
+        private Thread thread; // Null until first resumed
+        private long pending = -1; // Order of the pending resumption, -1 if none
+        private boolean woken = false; // Last wait ended by a set, not a time out
+        private boolean done = false;
+
+        Proc( Scheduler scheduler ) {
+            this.scheduler = scheduler;
+        }
+
+        protected abstract void body() throws IOException;
+
+        public final void run() {
+            try {
+                go.acquire();
+                body();
+            } catch( Stop | InterruptedException e ) {
+                // The run ended while this process waited
+            } catch( Throwable t ) {
+                scheduler.failed = t;
+            } finally {
+                done = true;
+                scheduler.alive.remove( this );
+                scheduler.back.release();
+            }
+        }
+
+        double clock() {
+            return scheduler.clock;
+        }
+
+        // Start 'p' now, after the processes already due now
+        void add( Proc p ) {
+            scheduler.schedule( p, 0.0 );
+        }
+
+        // Wait 'interval' simulated hours
+        void hold( double interval ) {
+            scheduler.schedule( this, interval );
+            suspend();
+        }
+
+        // Give control back to the scheduler until resumed
+        private void suspend() {
+            scheduler.back.release();
+            try {
+                go.acquire();
+            } catch( InterruptedException e ) {
+                throw new Stop();
+            }
+        }
+    }
+
+    // A CSIM event: set() wakes the waiter or, with nobody waiting, stays
+    // occurred until the next wait clears it without blocking
+    static final class Flag {
+        private final Scheduler scheduler;
+        private boolean occurred = false;
+        private Proc waiter = null;
+
+        Flag( Scheduler scheduler ) {
+            this.scheduler = scheduler;
+        }
+
+        void set() {
+            if( waiter != null ) {
+                waiter.woken = true;
+                scheduler.schedule( waiter, 0.0 );
+                waiter = null;
+            }
+            else {
+                occurred = true;
+            }
+        }
+
+        // Forget a set() nobody waited for
+        void clear() {
+            occurred = false;
+        }
+
+        // Wait until set
+        void untimed_wait() {
+            if( occurred ) {
+                occurred = false;
+                return;
+            }
+            Proc p = scheduler.current;
+            p.woken = false;
+            waiter = p;
+            p.suspend();
+        }
+
+        // Wait until set or 'interval' hours passed, return true if set
+        boolean timed_wait( double interval ) {
+            if( occurred ) {
+                occurred = false;
+                return true;
+            }
+            Proc p = scheduler.current;
+            p.woken = false;
+            waiter = p;
+            scheduler.schedule( p, interval );
+            p.suspend();
+            if( !p.woken )
+                waiter = null;
+            return p.woken;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.trainsim;
+
+import java.io.PrintStream;
+
+// What a Simulation of a scenario found: the time-in-system estimate of
+// every replication with their confidence interval, and the statistics of
+// every replication merged, the same ones printStats() prints. With
+// antithetic pairs or control variates it also has the reduced estimate
+public final class SimResult {
+    private final ScenarioConfig config;
+    private final double[] estimates; // Estimate of each replication, in order
+    private final Accumulator means = new Accumulator(); // Of 'estimates'
+    private final TrainStats stats; // Every replication merged
+    private final double hours; // Simulated hours of every replication together
+    private final double confidence; // Level of the interval
+    private final VarianceReduction reduction; // Null if not asked for
+
+    SimResult( ScenarioConfig config, double[] estimates, TrainStats stats, double hours,
+            double confidence, VarianceReduction reduction ) {
+        this.config = config;
+        this.estimates = estimates;
+        this.stats = stats;
+        this.hours = hours;
+        this.confidence = confidence;
+        this.reduction = reduction;
+        for( double e : estimates )
+            means.record( e );
+    }
+
+    public ScenarioConfig config() {
+        return config;
+    }
+
+    /* ACROSS REPLICATIONS */
+    public int replications() {
+        return estimates.length;
+    }
+    // Time-in-system estimate of each replication, in order
+    public double[] estimates() {
+        return estimates.clone();
+    }
+    // Mean of the estimates
+    public double mean() {
+        return means.mean();
+    }
+    // Half-width of the confidence interval of mean(), infinite below 2 replications
+    public double halfWidth() {
+        return StudentT.halfWidth( confidence, means.count(), means.stddev() );
+    }
+    public double confidence() {
+        return confidence;
+    }
+    // True if the interval is as narrow as the scenario's ci asked for
+    public boolean converged() {
+        return config.ci > 0 && reducedHalfWidth() <= config.ci * Math.abs( reducedMean() );
+    }
+    // The variance-reduced estimate, mean() without variance reduction
+    public double reducedMean() {
+        return reduction != null ? reduction.mean() : mean();
+    }
+    // Half-width of the confidence interval of reducedMean()
+    public double reducedHalfWidth() {
+        return reduction != null ? reduction.halfWidth( confidence ) : halfWidth();
+    }
+    // Variance of mean() over that of reducedMean(), 1 without variance reduction,
+    // NaN with too few replications to tell
+    public double varianceReduction() {
+        return reduction != null ? reduction.reduction() : 1.0;
+    }
+    /* END */
+
+    /* EVERY TRAIN OF EVERY REPLICATION */
+    public long trainsServed() {
+        return stats.timeIn.count();
+    }
+    public double meanTimeInSystem() {
+        return stats.timeIn.mean();
+    }
+    public double maxTimeInSystem() {
+        return stats.timeIn.max();
+    }
+    // The 'q' quantile of the time in system, within TrainStats.ACCURACY
+    public double timeInSystemQuantile( double q ) {
+        return stats.timeInQuantiles.quantile( q );
+    }
+    public double meanTimeInQueue() {
+        return stats.timeInQ.mean();
+    }
+    public int maxQueue() {
+        return stats.maxQ();
+    }
+    // Percentages of the time of every dock of every replication
+    public double dockIdlePercent() {
+        return stats.idle.sum() / (hours * config.docks) * 100;
+    }
+    public double dockBusyPercent() {
+        return stats.busy.sum() / (hours * config.docks) * 100;
+    }
+    public double dockHoggedPercent() {
+        return stats.hogged.sum() / (hours * config.docks) * 100;
+    }
+    // Mean wait for a pool crew, NaN without a limited pool
+    public double meanCrewWait() {
+        return stats.crewWait.count() > 0 ? stats.crewWait.mean() : Double.NaN;
+    }
+    public double simulatedHours() {
+        return hours;
+    }
+    /* END */
+
+    // Print the merged statistics like a run of TrainSim does
+    public void print( PrintStream out ) {
+        if( estimates.length == 1 )
+            stats.print( out, hours );
+        else
+            stats.printMerged( out, estimates.length );
+        if( reduction != null )
+            reduction.print( out, confidence );
+    }
+
+    TrainStats stats() {
+        return stats;
+    }
+}
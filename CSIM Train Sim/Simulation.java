@@ -0,0 +1,89 @@
+package com.trainsim;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+// Runs scenarios for programs that embed the simulator. A run keeps all of
+// its state to itself: it reads nothing static, prints nothing and reports
+// every failure by throwing, so any number of scenarios can run at once on
+// the caller's threads in one warm JVM. The replications run one after the
+// other on the event calendar engine, whose results match the CSIM engine
+// of TrainSim. An interrupted thread stops between two replications. With
+// antithetic pairs or control variates the ci applies to the reduced
+// estimate, as it does for TrainSim -antithetic and -cv. A scenario with a
+// cache takes the replications it finds there and adds those it runs.
+//   SimResult r = Simulation.run( ScenarioConfig.builder().seed( 1 ).build() );
+public final class Simulation {
+    static final double CONFIDENCE = .99; // Level of the confidence interval
+    private static final int MIN_SIMS = 3; // Least replications of a sequential run
+
+    private Simulation() {
+    }
+
+    // Run the replications of 'c' and return what they found. With a ci the
+    // replications stop as soon as their interval is as narrow as asked for
+    public static SimResult run( ScenarioConfig c ) throws IOException {
+        RandomStreams streams = c.premade() ? null : new RandomStreams( c.seed );
+        TrainStats total = new TrainStats( c.docks );
+        Accumulator means = new Accumulator();
+        VarianceReduction reduction = !c.reduced() ? null
+            : new VarianceReduction( c.antithetic, c.controlVariates,
+                VarianceReduction.means( c.arrival, c.unloadA, c.unloadB, c.crewA, c.crewB ) );
+        double[] estimates = new double[Math.min( c.replications, 16 )];
+        ResultCache cache = c.cacheDir != null ? ResultCache.open( c ) : null;
+        double hours = 0.0;
+        int n = 0;
+        while( n < c.replications ) {
+            if( Thread.interrupted() )
+                throw new InterruptedIOException( "Interrupted after " + n + " replications" );
+            ResultCache.Entry hit = cache != null ? cache.get( n ) : null;
+            TrainStats s;
+            if( hit != null ) {
+                s = hit.stats;
+                hours += hit.hours;
+            }
+            else {
+                EventSim sim = replication( c, streams, n );
+                s = sim.run();
+                hours += sim.clock();
+                if( cache != null )
+                    cache.put( n, s, sim.clock() );
+            }
+            double estimate = s.estimate();
+            total.merge( s );
+            means.record( estimate );
+            if( reduction != null )
+                reduction.record( estimate, s.controls() );
+            if( n == estimates.length )
+                estimates = java.util.Arrays.copyOf( estimates, 2 * n );
+            estimates[n++] = estimate;
+            if( c.ci > 0 && reduction != null ) {
+                // Antithetic replications stop only once every pair is whole
+                if( (!c.antithetic || n % 2 == 0) && reduction.observations() >= MIN_SIMS
+                        && reduction.halfWidth( CONFIDENCE ) <= c.ci * Math.abs( reduction.mean() ) )
+                    break;
+            }
+            else if( c.ci > 0 && means.count() >= MIN_SIMS && StudentT.halfWidth( CONFIDENCE,
+                    means.count(), means.stddev() ) <= c.ci * Math.abs( means.mean() ) )
+                break;
+        }
+        return new SimResult( c, java.util.Arrays.copyOf( estimates, n ), total, hours,
+            CONFIDENCE, reduction );
+    }
+
+    // Replication 'r' of 'c', ready to run, drawing from 'streams' unless
+    // it reads its values from files
+    static EventSim replication( ScenarioConfig c, RandomStreams streams, int r )
+            throws IOException {
+        TrainSimUtil util = c.premade()
+            ? (c.streamGap >= 0 ? new TrainSimUtil( c.scheduleFile, c.travelFile, c.streamGap, null )
+                : new TrainSimUtil( c.scheduleFile, c.travelFile ))
+            : new TrainSimUtil( c.arrival, c.unloadA, c.unloadB, c.crewA, c.crewB,
+                c.replaceA, c.replaceB,
+                c.antithetic ? streams.antithetic( r ) : streams.replication( r ) );
+        if( !c.premade() )
+            util.controls( (int) Math.ceil( c.simTime / c.arrival ) );
+        return new EventSim( null, TraceSink.NONE, util, c.simTime, c.premade(), c.docks,
+            c.policy, c.crews, c.ci > 0 ? new BatchMeans( CONFIDENCE, c.ci ) : null );
+    }
+}
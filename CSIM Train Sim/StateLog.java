@@ -0,0 +1,184 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Writes every change of the queue length, of each dock's state and of
+// each train's crew state, with the simulated time it happened at, so any
+// time-weighted statistic of a run can be worked out afterwards by
+// StateWindows. Changes are held in one block of BLOCK rows, stored column
+// by column, and the block is written out whenever it fills, so memory
+// stays the same however long the run. The file starts with MAGIC, VERSION
+// and the number of docks, all little-endian ints, followed by the blocks.
+// A block is its row count, then the time of every row as a double, the
+// subject (dock or train) and value of every row as ints, and the kind of
+// every row as a byte.
+class StateLog {
+    static final int MAGIC = 0x54535354; // "TSST"
+    static final int VERSION = 1;
+    static final int HEADER = 12; // Bytes of MAGIC, VERSION and docks
+    static final int BLOCK = 4096; // Most rows in a block
+    static final int ROW = 17; // Bytes of a row
+    /* KINDS of row */
+    static final byte QUEUE = 0; // Value is the trains in the queue
+    static final byte DOCK = 1; // Subject is a dock, value its state
+    static final byte CREW = 2; // Subject is a train, value its crew's state
+    static final byte END = 3; // The sim ended
+    /* END */
+    /* STATES of docks and crews */
+    static final int IDLE = 0; // Dock without a train
+    static final int BUSY = 1; // Dock unloading, or crew on the clock
+    static final int HOGGED = 2; // Dock or crew waiting for a new crew
+    static final int GONE = 3; // Crew left with its train
+    /* END */
+    private final FileChannel channel; // The state file
+    private final ByteBuffer buf = ByteBuffer.allocate( 4 + BLOCK * ROW )
+        .order( ByteOrder.LITTLE_ENDIAN ); // Block being written out
+    private final double[] time = new double[BLOCK];
+    private final int[] subject = new int[BLOCK];
+    private final int[] value = new int[BLOCK];
+    private final byte[] kind = new byte[BLOCK];
+    private int rows = 0; // Rows in the block
+    private int queue = -1; // Last queue length written
+
+    /*
+    Parameter(1): File location of the state log
+    Parameter(2): Number of docks in the yard
+    */
+    StateLog( String file, int docks ) throws IOException {
+        channel = new FileOutputStream( file ).getChannel();
+        buf.putInt( MAGIC ).putInt( VERSION ).putInt( docks );
+        buf.flip();
+        while( buf.hasRemaining() )
+            channel.write( buf );
+        buf.clear();
+    }
+
+    // The queue is 'q' trains long from 'time' on, only changes are kept
+    void queue( double time, int q ) {
+        if( q == queue ) return;
+        queue = q;
+        add( time, QUEUE, 0, q );
+    }
+
+    // 'dock' is IDLE, BUSY or HOGGED from 'time' on
+    void dock( double time, int dock, int state ) {
+        add( time, DOCK, dock, state );
+    }
+
+    // The crew of 'train' is BUSY, HOGGED or GONE from 'time' on
+    void crew( double time, int train, int state ) {
+        add( time, CREW, train, state );
+    }
+
+    // The sim ended at 'time'
+    void end( double time ) {
+        add( time, END, 0, 0 );
+    }
+
+    private void add( double t, byte k, int s, int v ) {
+        if( rows == BLOCK ) {
+            try {
+                flush();
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+        time[rows] = t;
+        kind[rows] = k;
+        subject[rows] = s;
+        value[rows] = v;
+        rows++;
+    }
+
+    // Write the rows held as a block
+    void flush() throws IOException {
+        if( rows == 0 ) return;
+        buf.putInt( rows );
+        for( int i = 0; i < rows; ++i )
+            buf.putDouble( time[i] );
+        for( int i = 0; i < rows; ++i )
+            buf.putInt( subject[i] );
+        for( int i = 0; i < rows; ++i )
+            buf.putInt( value[i] );
+        buf.put( kind, 0, rows );
+        buf.flip();
+        while( buf.hasRemaining() )
+            channel.write( buf );
+        buf.clear();
+        rows = 0;
+    }
+
+    void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    // Reads back the rows of a state log a block at a time
+    static final class Reader implements Closeable {
+        private final String file;
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate( BLOCK * ROW )
+            .order( ByteOrder.LITTLE_ENDIAN );
+        final int docks; // Docks of the yard
+        final double[] time = new double[BLOCK];
+        final int[] subject = new int[BLOCK];
+        final int[] value = new int[BLOCK];
+        final byte[] kind = new byte[BLOCK];
+        int rows = 0; // Rows of the last block read
+
+        Reader( String file ) throws IOException {
+            this.file = file;
+            channel = new FileInputStream( file ).getChannel();
+            try {
+                ByteBuffer header = read( HEADER );
+                if( header == null || header.getInt() != MAGIC )
+                    throw new IOException( file + " is not a state log" );
+                int version = header.getInt();
+                if( version != VERSION )
+                    throw new IOException( "Unsupported state log version " + version );
+                docks = header.getInt();
+            } catch( IOException e ) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Read the next block into the arrays, return false at the end
+        boolean next() throws IOException {
+            ByteBuffer b = read( 4 );
+            if( b == null ) return false;
+            rows = b.getInt();
+            if( rows < 1 || rows > BLOCK )
+                throw new IOException( file + " has a block of " + rows + " rows" );
+            b = read( rows * ROW );
+            if( b == null )
+                throw new IOException( file + " ends in a partial block" );
+            for( int i = 0; i < rows; ++i )
+                time[i] = b.getDouble();
+            for( int i = 0; i < rows; ++i )
+                subject[i] = b.getInt();
+            for( int i = 0; i < rows; ++i )
+                value[i] = b.getInt();
+            b.get( kind, 0, rows );
+            return true;
+        }
+
+        // Read 'n' bytes, null at the end of the file
+        private ByteBuffer read( int n ) throws IOException {
+            buf.clear().limit( n );
+            while( buf.hasRemaining() && channel.read( buf ) >= 0 );
+            if( buf.position() == 0 ) return null;
+            if( buf.hasRemaining() )
+                throw new IOException( file + " is cut short" );
+            buf.flip();
+            return buf;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
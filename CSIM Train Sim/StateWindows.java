@@ -0,0 +1,147 @@
+package com.trainsim;
+
+import java.io.*;
+import java.util.HashMap;
+
+// Works out the time-weighted averages of a state log written by -states,
+// for every window of simulated time and for the whole run, as a CSV table.
+// The log is read a block at a time and only the current state of the yard
+// is kept, so a run of any length takes the same memory. Every value is
+// weighted by how long it held: the queue length, the share of the dock
+// time each dock state took and the number of crews hogged out.
+// Usage: StateWindows [-w <hours>] <state file>
+public class StateWindows {
+    private static final String COLUMNS = "window_start,window_end,queue_avg,queue_max,"
+        + "dock_idle_pct,dock_busy_pct,dock_hogged_pct,crews_hogged_avg";
+
+    public static void main( String[] args ) throws IOException {
+        double window = 0.0;
+        String file = null;
+        for( int i = 0; i < args.length; ++i ) {
+            if( args[i].equals( "-w" ) && i + 1 < args.length )
+                window = Double.parseDouble( args[++i] );
+            else
+                file = args[i];
+        }
+        if( file == null || window < 0 ) {
+            System.out.println( "Usage: StateWindows [-w <hours>] <state file>" );
+            return;
+        }
+        PrintStream out = new PrintStream( new BufferedOutputStream( System.out, 1 << 16 ), false );
+        windows( file, window, out );
+        out.flush();
+    }
+
+    // Time-weighted sums of the state over a span of simulated time
+    private static final class Span {
+        double start; // Time the span starts at
+        double length = 0.0; // Time covered so far
+        double queue = 0.0; // Queue length times time
+        int maxQueue = 0;
+        final double[] docks = new double[3]; // Dock time in each dock state
+        double hogged = 0.0; // Crews hogged out times time
+        Span( double start ) {
+            this.start = start;
+        }
+        void add( double dt, int q, int[] dockStates, int crewsHogged ) {
+            length += dt;
+            queue += q * dt;
+            for( int s = 0; s < docks.length; ++s )
+                docks[s] += dockStates[s] * dt;
+            hogged += crewsHogged * dt;
+        }
+        void row( PrintStream out, int nDocks ) {
+            double dockTime = length * nDocks;
+            out.printf( "%.4f,%.4f,%.6f,%d,%.4f,%.4f,%.4f,%.6f\n", start, start + length,
+                queue / length, maxQueue, docks[StateLog.IDLE] / dockTime * 100,
+                docks[StateLog.BUSY] / dockTime * 100, docks[StateLog.HOGGED] / dockTime * 100,
+                hogged / length );
+        }
+        void restart( double at, int q ) {
+            start = at;
+            length = queue = hogged = 0.0;
+            maxQueue = q;
+            java.util.Arrays.fill( docks, 0.0 );
+        }
+    }
+
+    // Write a row for every 'window' hours of state log 'file' to 'out',
+    // then a row for the whole run, no windows if 'window' is 0
+    static void windows( String file, double window, PrintStream out ) throws IOException {
+        StateLog.Reader in = new StateLog.Reader( file );
+        try {
+            int nDocks = in.docks;
+            int[] dock = new int[nDocks]; // State of each dock
+            int[] dockStates = new int[3]; // Docks in each state
+            dockStates[StateLog.IDLE] = nDocks;
+            HashMap<Integer, Integer> crews = new HashMap<Integer, Integer>(); // Crew of each train
+            int crewsHogged = 0;
+            int q = 0;
+            double clock = 0.0;
+            Span total = new Span( 0.0 );
+            Span current = new Span( 0.0 );
+            out.println( COLUMNS );
+            boolean ended = false;
+            while( !ended && in.next() ) {
+                for( int i = 0; i < in.rows && !ended; ++i ) {
+                    double t = in.time[i];
+                    if( t < clock )
+                        throw new IOException( file + " goes back in time at " + t );
+                    // Hold the current state until 't', cut at the window ends
+                    while( window > 0 && t >= current.start + window ) {
+                        double end = current.start + window;
+                        current.add( end - clock, q, dockStates, crewsHogged );
+                        current.row( out, nDocks );
+                        current.restart( end, q );
+                        total.add( end - clock, q, dockStates, crewsHogged );
+                        clock = end;
+                    }
+                    current.add( t - clock, q, dockStates, crewsHogged );
+                    total.add( t - clock, q, dockStates, crewsHogged );
+                    clock = t;
+                    // Then apply the change
+                    int s = in.subject[i];
+                    int v = in.value[i];
+                    switch( in.kind[i] ) {
+                    case StateLog.QUEUE:
+                        q = v;
+                        current.maxQueue = Math.max( current.maxQueue, q );
+                        total.maxQueue = Math.max( total.maxQueue, q );
+                        break;
+                    case StateLog.DOCK:
+                        if( s < 0 || s >= nDocks )
+                            throw new IOException( file + " has no dock " + s );
+                        if( v < StateLog.IDLE || v > StateLog.HOGGED )
+                            throw new IOException( file + " has dock " + s
+                                + " in unknown state " + v );
+                        dockStates[dock[s]]--;
+                        dock[s] = v;
+                        dockStates[v]++;
+                        break;
+                    case StateLog.CREW:
+                        if( v < StateLog.BUSY || v > StateLog.GONE )
+                            throw new IOException( file + " has the crew of train " + s
+                                + " in unknown state " + v );
+                        Integer was = v == StateLog.GONE ? crews.remove( s ) : crews.put( s, v );
+                        if( was != null && was == StateLog.HOGGED )
+                            crewsHogged--;
+                        if( v == StateLog.HOGGED )
+                            crewsHogged++;
+                        break;
+                    case StateLog.END:
+                        ended = true;
+                        break;
+                    default:
+                        throw new IOException( file + " has a row of unknown kind " + in.kind[i] );
+                    }
+                }
+            }
+            if( current.length > 0 && window > 0 )
+                current.row( out, nDocks );
+            if( total.length > 0 )
+                total.row( out, nDocks );
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.trainsim;
+
+// Quantiles of Student's t distribution, for confidence intervals of means
+final class StudentT {
+    private StudentT() {}
+
+    // Return t with P(T <= t) = p for 'df' degrees of freedom
+    static double quantile( double p, int df ) {
+        if( p == 0.5 ) return 0.0;
+        if( p < 0.5 ) return -quantile( 1 - p, df );
+        // Bisection on the distribution function, widening the bracket first
+        double lo = 0.0;
+        double hi = 1.0;
+        while( cdf( hi, df ) < p )
+            hi *= 2;
+        for( int i = 0; i < 100 && hi - lo > 1e-12 * hi; ++i ) {
+            double mid = (lo + hi) / 2;
+            if( cdf( mid, df ) < p ) lo = mid;
+            else hi = mid;
+        }
+        return (lo + hi) / 2;
+    }
+
+    // Half-width of the two-sided 'confidence' interval of a mean of 'n'
+    // values with standard deviation 'stddev', infinite below 2 values
+    static double halfWidth( double confidence, long n, double stddev ) {
+        if( n < 2 ) return Double.POSITIVE_INFINITY;
+        return quantile( (1 + confidence) / 2, (int) Math.min( n - 1, Integer.MAX_VALUE ) )
+            * stddev / Math.sqrt( n );
+    }
+
+    // P(T <= t) for t >= 0
+    private static double cdf( double t, int df ) {
+        double x = df / (df + t * t);
+        return 1 - 0.5 * incompleteBeta( df / 2.0, 0.5, x );
+    }
+
+    // Regularized incomplete beta function I_x(a, b)
+    private static double incompleteBeta( double a, double b, double x ) {
+        if( x <= 0 ) return 0.0;
+        if( x >= 1 ) return 1.0;
+        double front = Math.exp( logGamma( a + b ) - logGamma( a ) - logGamma( b )
+            + a * Math.log( x ) + b * Math.log( 1 - x ) );
+        // The continued fraction converges quickly on this side of the mean
+        if( x < (a + 1) / (a + b + 2) )
+            return front * betaFraction( a, b, x ) / a;
+        return 1 - front * betaFraction( b, a, 1 - x ) / b;
+    }
+
+    // Continued fraction of the incomplete beta function, by Lentz's method
+    private static double betaFraction( double a, double b, double x ) {
+        final double tiny = 1e-300;
+        double c = 1.0;
+        double d = 1 - (a + b) * x / (a + 1);
+        if( Math.abs( d ) < tiny ) d = tiny;
+        d = 1 / d;
+        double f = d;
+        for( int m = 1; m <= 300; ++m ) {
+            int m2 = 2 * m;
+            double num = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 + num * d;
+            if( Math.abs( d ) < tiny ) d = tiny;
+            c = 1 + num / c;
+            if( Math.abs( c ) < tiny ) c = tiny;
+            d = 1 / d;
+            f *= d * c;
+            num = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 + num * d;
+            if( Math.abs( d ) < tiny ) d = tiny;
+            c = 1 + num / c;
+            if( Math.abs( c ) < tiny ) c = tiny;
+            d = 1 / d;
+            double step = d * c;
+            f *= step;
+            if( Math.abs( step - 1 ) < 1e-15 ) break;
+        }
+        return f;
+    }
+
+    // Log of the gamma function, Lanczos approximation
+    private static double logGamma( double x ) {
+        final double[] g = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+            -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log( tmp );
+        double ser = 1.000000000190015;
+        for( double c : g )
+            ser += c / ++y;
+        return -tmp + Math.log( 2.5066282746310005 * ser / x );
+    }
+}
@@ -0,0 +1,51 @@
+package com.trainsim;
+
+import java.io.PrintStream;
+
+// Prints each trace record as a line of text as soon as it happens
+class TextTrace implements TraceSink {
+    private final PrintStream out; // Where the lines go
+
+    TextTrace( PrintStream out ) {
+        this.out = out;
+    }
+
+    public void arrival( double time, int train, double unload, int crew, double timeLeft, int q ) {
+        out.printf("Time %.2f: train %d arrival for %.2fh of unloading, " +
+                           "crew %d with %.2fh before hogout (Q=%d)\n",
+                           time, train, unload, crew, timeLeft, q);
+    }
+    public void enterDock( double time, int train, double unload, int crew, double timeLeft ) {
+        out.printf("Time %.2f: train %d entering dock for %.2fh of "
+            + "unloading, crew %d with %.2fh before hogout\n",
+                           time, train, unload, crew, timeLeft);
+    }
+    public void departure( double time, int train, int q ) {
+        out.printf("Time %.2f: train %d departing (Q=%d)\n", time, train, q);
+    }
+    public void hogoutInQ( double time, int train, int crew ) {
+        out.printf("Time %.2f: train %d crew %d hogged out in queue\n",
+                           time, train, crew);
+    }
+    public void hogoutInDock( double time, int train, int crew ) {
+        out.printf("Time %.2f: train %d crew %d hogged out during " 
+                          + "service (SERVER HOGGED)\n", time, train, crew);   
+    }
+    public void crewArrival( double time, int train, int crew ) {
+         out.printf("Time %.2f: train %d replacement crew %d arrives " 
+                          + "(SERVER UNHOGGED)\n", time, train, crew); 
+    }
+    public void stuckInQ( double time, int train, int crew ) {
+         out.printf("Time %.2f: train %d crew %d hasn't arrived yet, " 
+                          + "cannot enter dock (SERVER HOGGED)\n", time, train, crew); 
+    }
+    public void ended( double time ) {
+        out.printf( "Time %.2f: simulation ended\n", time );
+    }
+    public void flush() {
+        out.flush();
+    }
+    public void close() {
+        out.flush();
+    }
+}
@@ -0,0 +1,97 @@
+package com.trainsim;
+
+import java.nio.ByteBuffer;
+
+// Binary layout of the trace records. A trace file starts with MAGIC and
+// VERSION, then holds one record per event: a type byte, the time and the
+// train, followed by the fields of that type.
+final class TraceCodec {
+    static final int MAGIC = 0x54535452; // "TSTR"
+    static final int VERSION = 1;
+    static final int HEADER = 8; // Bytes of MAGIC and VERSION
+    static final byte ARRIVAL = 1;
+    static final byte ENTER_DOCK = 2;
+    static final byte DEPARTURE = 3;
+    static final byte HOGOUT_IN_Q = 4;
+    static final byte HOGOUT_IN_DOCK = 5;
+    static final byte CREW_ARRIVAL = 6;
+    static final byte STUCK_IN_Q = 7;
+    static final byte ENDED = 8;
+    static final int MAX_RECORD = 37; // Bytes of the longest record
+
+    private TraceCodec() {}
+
+    // Bytes of a record of type 'type', -1 if the type is unknown
+    static int length( byte type ) {
+        switch( type ) {
+        case ARRIVAL: return 37;
+        case ENTER_DOCK: return 33;
+        case DEPARTURE: return 17;
+        case HOGOUT_IN_Q:
+        case HOGOUT_IN_DOCK:
+        case CREW_ARRIVAL:
+        case STUCK_IN_Q: return 17;
+        case ENDED: return 9;
+        default: return -1;
+        }
+    }
+
+    static void arrival( ByteBuffer b, double time, int train, double unload,
+            int crew, double timeLeft, int q ) {
+        b.put( ARRIVAL ).putDouble( time ).putInt( train ).putDouble( unload )
+            .putInt( crew ).putDouble( timeLeft ).putInt( q );
+    }
+    static void enterDock( ByteBuffer b, double time, int train, double unload,
+            int crew, double timeLeft ) {
+        b.put( ENTER_DOCK ).putDouble( time ).putInt( train ).putDouble( unload )
+            .putInt( crew ).putDouble( timeLeft );
+    }
+    // Records with a time, a train and one more int (queue length or crew)
+    static void event( ByteBuffer b, byte type, double time, int train, int value ) {
+        b.put( type ).putDouble( time ).putInt( train ).putInt( value );
+    }
+    static void ended( ByteBuffer b, double time ) {
+        b.put( ENDED ).putDouble( time );
+    }
+
+    // Send every whole record between the position and limit of 'b' to
+    // 'sink'. A partial record at the end is left in 'b' at its position.
+    static void replay( ByteBuffer b, TraceSink sink ) {
+        while( b.hasRemaining() ) {
+            byte type = b.get( b.position() );
+            int len = length( type );
+            if( len < 0 )
+                throw new IllegalArgumentException( "Bad trace record type " + type );
+            if( b.remaining() < len ) return;
+            b.get();
+            double time = b.getDouble();
+            if( type == ENDED ) {
+                sink.ended( time );
+                continue;
+            }
+            int train = b.getInt();
+            switch( type ) {
+            case ARRIVAL:
+                sink.arrival( time, train, b.getDouble(), b.getInt(), b.getDouble(), b.getInt() );
+                break;
+            case ENTER_DOCK:
+                sink.enterDock( time, train, b.getDouble(), b.getInt(), b.getDouble() );
+                break;
+            case DEPARTURE:
+                sink.departure( time, train, b.getInt() );
+                break;
+            case HOGOUT_IN_Q:
+                sink.hogoutInQ( time, train, b.getInt() );
+                break;
+            case HOGOUT_IN_DOCK:
+                sink.hogoutInDock( time, train, b.getInt() );
+                break;
+            case CREW_ARRIVAL:
+                sink.crewArrival( time, train, b.getInt() );
+                break;
+            default:
+                sink.stuckInQ( time, train, b.getInt() );
+            }
+        }
+    }
+}
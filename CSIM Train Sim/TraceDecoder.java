@@ -0,0 +1,46 @@
+package com.trainsim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Turns a binary trace written by BinaryTrace back into the text lines
+// the simulation prints
+// Usage: TraceDecoder <trace file>
+public class TraceDecoder {
+    public static void main( String[] args ) throws IOException {
+        if( args.length != 1 ) {
+            System.out.println( "Usage: TraceDecoder <trace file>" );
+            return;
+        }
+        PrintStream out = new PrintStream( new BufferedOutputStream( System.out, 1 << 16 ), false );
+        decode( args[0], new TextTrace( out ) );
+        out.flush();
+    }
+
+    // Replay every record of binary trace 'file' into 'sink'
+    static void decode( String file, TraceSink sink ) throws IOException {
+        FileChannel channel = new FileInputStream( file ).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate( 1 << 16 );
+            while( buf.position() < TraceCodec.HEADER && channel.read( buf ) >= 0 );
+            buf.flip();
+            if( buf.remaining() < TraceCodec.HEADER || buf.getInt() != TraceCodec.MAGIC )
+                throw new IOException( file + " is not a trace file" );
+            int version = buf.getInt();
+            if( version != TraceCodec.VERSION )
+                throw new IOException( "Unsupported trace version " + version );
+            while( true ) {
+                TraceCodec.replay( buf, sink );
+                buf.compact();
+                int n = channel.read( buf );
+                buf.flip();
+                if( n < 0 ) break;
+            }
+            if( buf.hasRemaining() )
+                throw new IOException( file + " ends in a partial record" );
+        } finally {
+            channel.close();
+        }
+    }
+}
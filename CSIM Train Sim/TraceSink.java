@@ -0,0 +1,35 @@
+package com.trainsim;
+
+import java.io.IOException;
+
+// Receives the per-event trace of a simulation. A sink may print each
+// record right away, hand them to a writer thread, store them in binary or
+// drop them.
+interface TraceSink {
+    void arrival( double time, int train, double unload, int crew, double timeLeft, int q );
+    void enterDock( double time, int train, double unload, int crew, double timeLeft );
+    void departure( double time, int train, int q );
+    void hogoutInQ( double time, int train, int crew );
+    void hogoutInDock( double time, int train, int crew );
+    void crewArrival( double time, int train, int crew );
+    void stuckInQ( double time, int train, int crew );
+    void ended( double time );
+    // Return once everything traced so far has been written out
+    void flush() throws IOException;
+    // Flush and release the sink
+    void close() throws IOException;
+
+    // Sink that drops every record, used for quiet runs
+    TraceSink NONE = new TraceSink() {
+        public void arrival( double time, int train, double unload, int crew, double timeLeft, int q ) {}
+        public void enterDock( double time, int train, double unload, int crew, double timeLeft ) {}
+        public void departure( double time, int train, int q ) {}
+        public void hogoutInQ( double time, int train, int crew ) {}
+        public void hogoutInDock( double time, int train, int crew ) {}
+        public void crewArrival( double time, int train, int crew ) {}
+        public void stuckInQ( double time, int train, int crew ) {}
+        public void ended( double time ) {}
+        public void flush() {}
+        public void close() {}
+    };
+}
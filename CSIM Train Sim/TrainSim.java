@@ -5,16 +5,127 @@ import com.mesquite.csim.Process;
 import com.mesquite.csim.file.Files;
 import java.lang.*;
 import java.io.*;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
 
 // Train Simulation class
 public class TrainSim extends Model {
     public static void main(String[] args) {
+        TrainSim model = simulate( args );
+        // Print a report only if more than 1 simulation are to be run
+        if( nSims > 1 )
+            model.report();
+    }
+
+    // Run the simulations asked for by command line 'args' and return the
+    // model holding their merged statistics
+    static TrainSim simulate( String[] args ) {
+        // A resumed run goes on with the arguments it was started with
+        resumed = null;
+        for( int i = 0; i + 1 < args.length; ++i ) {
+            if( args[i].equals( "-resume" ) || args[i].equals( "--resume" ) ) {
+                try {
+                    resumed = Checkpoint.open( args[i + 1] );
+                } catch( IOException | ClassCastException e ) {
+                    System.out.println( "Could not read checkpoint " + args[i + 1] );
+                    System.exit(0);
+                }
+                args = resumed.args;
+                break;
+            }
+        }
+        // Start from the defaults, so nothing is left over from an earlier call
+        simTime = 72000.0;
+        interATime = 10.0;
+        nSims = 1;
+        nThreads = 1;
+        heapEngine = false;
+        threadEngine = false;
+        traceMode = "text";
+        traceFile = null;
+        seed = System.nanoTime();
+        premade = false;
+        nDocks = 1;
+        policy = Yard.Policy.FIRST;
+        nCrews = 0;
+        ci = 0.0;
+        checkpointFile = null;
+        checkpointEvery = 0.0;
+        antithetic = false;
+        controlVariates = false;
+        metricsPort = -1;
+        metricsLog = 0.0;
+        statesFile = null;
+        streamGap = -1.0;
+        cacheDir = null;
+        cacheMB = 0.0;
+        cache = null;
+        // Pull out the optional flags, the rest are positional arguments
+        List<String> rest = new ArrayList<String>();
+        for( int i = 0; i < args.length; ++i ) {
+            if( args[i].equals( "-t" ) && i + 1 < args.length )
+                nThreads = Integer.parseInt( args[++i] );
+            else if( args[i].equals( "-seed" ) && i + 1 < args.length )
+                seed = Long.parseLong( args[++i] );
+            else if( args[i].equals( "-docks" ) && i + 1 < args.length )
+                nDocks = Integer.parseInt( args[++i] );
+            else if( args[i].equals( "-policy" ) && i + 1 < args.length )
+                policy = Yard.Policy.valueOf( args[++i].toUpperCase() );
+            else if( args[i].equals( "-crews" ) && i + 1 < args.length )
+                nCrews = Integer.parseInt( args[++i] );
+            else if( args[i].equals( "-ci" ) && i + 1 < args.length )
+                ci = Double.parseDouble( args[++i] );
+            else if( args[i].equals( "-checkpoint" ) && i + 2 < args.length ) {
+                checkpointFile = args[++i];
+                checkpointEvery = Double.parseDouble( args[++i] );
+            }
+            else if( args[i].equals( "-cache" ) && i + 2 < args.length ) {
+                cacheDir = args[++i];
+                cacheMB = Double.parseDouble( args[++i] );
+            }
+            else if( args[i].equals( "-metrics" ) && i + 1 < args.length )
+                metricsPort = Integer.parseInt( args[++i] );
+            else if( args[i].equals( "-metricslog" ) && i + 1 < args.length )
+                metricsLog = Double.parseDouble( args[++i] );
+            else if( args[i].equals( "-antithetic" ) )
+                antithetic = true;
+            else if( args[i].equals( "-cv" ) )
+                controlVariates = true;
+            else if( args[i].equals( "-states" ) && i + 1 < args.length )
+                statesFile = args[++i];
+            else if( args[i].equals( "-stream" ) && i + 1 < args.length )
+                streamGap = Double.parseDouble( args[++i] );
+            else if( args[i].equals( "-e" ) && i + 1 < args.length ) {
+                String engine = args[++i];
+                heapEngine = engine.equals( "heap" );
+                threadEngine = engine.equals( "threads" );
+            }
+            else if( args[i].equals( "-trace" ) && i + 1 < args.length ) {
+                traceMode = args[++i];
+                if( traceMode.equals( "bin" ) && i + 1 < args.length )
+                    traceFile = args[++i];
+            }
+            else
+                rest.add( args[i] );
+        }
+        // Keep the arguments with the seed they ran with for the checkpoints
+        runArgs = java.util.Arrays.copyOf( args, args.length + 2 );
+        runArgs[args.length] = "-seed";
+        runArgs[args.length + 1] = Long.toString( seed );
+        args = rest.toArray( new String[0] );
         // Check argument count to decide how to execute simulation
-        if( args.length == 3 && args[0].equals( "-s" ) ) {
-            // Using pre-defined values
+        if( (args.length == 3 || args.length == 4) && args[0].equals( "-s" ) ) {
+            // Using pre-defined values, for as long as a long log asks for
             premade = true;
             schedFile = args[1];
             travelFile = args[2];
+            if( args.length == 4 )
+                simTime = Double.parseDouble( args[3] );
+            // Nothing is drawn, so there is no variance to reduce
+            antithetic = false;
+            controlVariates = false;
         }
         else if( args.length == 3 ) {
             // Using generated values and running n sims
@@ -27,25 +138,119 @@ public class TrainSim extends Model {
             interATime = Double.parseDouble( args[0] );
             simTime = Double.parseDouble( args[1] );
         }
+        // Without a count, sequential runs go on until the interval is met
+        if( ci > 0 && nSims == 1 )
+            nSims = MAX_SIMS;
+        // A sim left without its pair would be dropped from the estimate
+        if( antithetic && nSims % 2 != 0 ) {
+            System.out.println( "-antithetic runs the sims in pairs, it needs an even number of them" );
+            System.exit(0);
+        }
+        // Every generated value comes from the master seed, printed so the
+        // run can be replayed with -seed
+        streams = new RandomStreams( seed );
+        if( !premade )
+            System.out.printf( "Master seed: %d\n", seed );
+        // Replications found in the cache are not run again, which leaves
+        // nothing to trace or log for them
+        if( cacheDir != null && (!traceMode.equals( "off" ) || statesFile != null) )
+            System.out.println( "The result cache is only used with -trace off and no -states" );
+        else if( cacheDir != null ) {
+            try {
+                cache = new ResultCache( cacheDir, (long) (cacheMB * 1048576), premade
+                    ? ResultCache.scenario( schedFile, travelFile, simTime, nDocks, policy,
+                        nCrews, ci )
+                    : ResultCache.scenario( interATime, TrainSimUtil.UNLOAD_A,
+                        TrainSimUtil.UNLOAD_B, TrainSimUtil.CREW_A, TrainSimUtil.CREW_B,
+                        TrainSimUtil.REPLACE_A, TrainSimUtil.REPLACE_B, simTime, nDocks,
+                        policy, nCrews, ci, antithetic, seed ) );
+            } catch( IOException e ) {
+                System.out.println( "Could not open result cache: " + e.getMessage() );
+                System.exit(0);
+            }
+        }
+        // Publish the live metrics while the sims run
+        if( metricsOn() ) {
+            try {
+                Metrics.REGISTRY.start( Math.max( metricsPort, 0 ), metricsLog, System.err );
+            } catch( IOException e ) {
+                System.out.println( "Could not start metrics: " + e.getMessage() );
+                System.exit(0);
+            }
+        }
         // Create a new instance of this class to continue the simulation
         // and run it
         TrainSim model = new TrainSim();
-        model.run();
-        // Print a report only if more than 1 simulation are to be run
-        if( nSims > 1 )
-            model.report();
+        try {
+            model.run();
+        } finally {
+            Metrics.REGISTRY.stop();
+        }
+        return model;
     }
 
     public TrainSim() {
         super( "Train Unloading Dock Simulation" );
     }
 
+    // Model context of a single replication, isolated from every other one
+    private TrainSim( int id ) {
+        super( "Train Unloading Dock Simulation " + Integer.toString(id) );
+        simId = id;
+        if( nThreads > 1 ) {
+            // Buffer the output so it can be printed in replication order
+            buffer = new ByteArrayOutputStream();
+            out = new PrintStream( buffer );
+        }
+        else {
+            out = console.console;
+        }
+        trace = newTrace();
+    }
+
+    // True if the sims record live metrics, asked for by -metrics or -metricslog
+    private static boolean metricsOn() {
+        return metricsPort >= 0 || metricsLog > 0;
+    }
+
+    // Create the trace sink of this replication from the -trace mode
+    private TraceSink newTrace() {
+        if( traceMode.equals( "off" ) )
+            return TraceSink.NONE;
+        if( traceMode.equals( "async" ) )
+            return new AsyncTrace( out );
+        if( traceMode.equals( "bin" ) && traceFile != null ) {
+            // One file per sim when running more than one
+            String file = nSims > 1 ? traceFile + "." + simId : traceFile;
+            try {
+                return new BinaryTrace( file );
+            } catch( IOException e ) {
+                System.out.println( "Could not open trace file" );
+                System.exit(0);
+            }
+        }
+        return new TextTrace( out );
+    }
+
+    // Create the state log of this replication from -states, null if none
+    private StateLog newStates() {
+        if( statesFile == null )
+            return null;
+        // One file per sim when running more than one
+        String file = nSims > 1 ? statesFile + "." + simId : statesFile;
+        try {
+            return new StateLog( file, nDocks );
+        } catch( IOException e ) {
+            System.out.println( "Could not open state log" );
+            System.exit(0);
+        }
+        return null;
+    }
+
     public void run() {
         try {
             // Create N simulations
-            for( int i = 0; i < nSims; ++i ) {
-                start(new Sim());
-            }
+            start( new Merge() );
         }
         catch (Exception e) {
             System.out.println("csim error: " + e.getMessage());
@@ -53,73 +258,306 @@ public class TrainSim extends Model {
         }
     }
 
-    private static double simTime = 72000.0; // Max simulation time, default is 72000
-    private static double interATime = 10.0; // train inter-arrive rate 
-    private static int simCount = 0; // Meant for sim id assignment  
-    private static int nSims = 1; // N simulations
-    private static boolean endSim = false; // Flag used to stop simulation
-    private static boolean premade = false; // Flag used to decide how we are getting values
+    // Statistics of every simulation, merged
+    TrainStats total() {
+        return total;
+    }
+
+    // Runs replication 'id' in its own model and returns it once it ended
+    private static TrainSim replicate( int id ) throws IOException {
+        TrainSim rep = new TrainSim( id );
+        ResultCache.Entry hit = cache != null ? cache.get( id ) : null;
+        if( hit != null ) {
+            // Print what the sim printed, it has no trace with -cache
+            rep.stats = hit.stats;
+            rep.stats.print( rep.out, hit.hours );
+            return rep;
+        }
+        if( threadEngine ) {
+            // Same process code on a thread per process and our own clock
+            ProcessSim sim = new ProcessSim( rep.out, rep.trace, rep.newUtil(), simTime,
+                premade, nDocks, policy, nCrews, newSteady() );
+            if( metricsOn() )
+                sim.metrics( Metrics.REGISTRY.recorder( nDocks ) );
+            if( statesFile != null )
+                sim.states( rep.newStates() );
+            rep.stats = sim.run();
+            return cached( rep, sim.clock() );
+        }
+        if( heapEngine ) {
+            // Same sim on the event calendar, the model is only a context
+            String snapshot = checkpointFile != null ? checkpointFile + "." + id : null;
+            EventSim sim;
+            if( resumed != null && new File( snapshot ).exists() )
+                sim = EventSim.resume( snapshot, rep.out, rep.trace );
+            else
+                sim = new EventSim( rep.out, rep.trace, rep.newUtil(), simTime, premade,
+                    nDocks, policy, nCrews, newSteady() );
+            if( snapshot != null )
+                sim.checkpoint( snapshot, checkpointEvery );
+            if( metricsOn() )
+                sim.metrics( Metrics.REGISTRY.recorder( nDocks ) );
+            if( statesFile != null )
+                sim.states( rep.newStates() );
+            rep.stats = sim.run();
+            if( snapshot != null )
+                new File( snapshot ).delete();
+            return cached( rep, sim.clock() );
+        }
+        Sim sim = rep.new Sim();
+        // CSIM prints the execution time of every model that ends, the run's
+        // own is printed once when the merge is done
+        console.route( OutputStream.nullOutputStream() );
+        try {
+            rep.start( sim );
+        } finally {
+            console.route( null );
+        }
+        return cached( rep, rep.hours );
+    }
+
+    // Keep the results of a replication that ran for 'hours' in the cache, if any
+    private static TrainSim cached( TrainSim rep, double hours ) throws IOException {
+        if( cache != null )
+            cache.put( rep.simId, rep.stats, hours );
+        return rep;
+    }
+
+    // Creates the steady-state estimate of a replication, none without -ci
+    private static BatchMeans newSteady() {
+        return ci > 0 ? new BatchMeans( CONFIDENCE, ci ) : null;
+    }
+
+    private static final double CONFIDENCE = .99; // Level of every confidence interval
+    private static final int MIN_SIMS = 3; // Least sims of a sequential run
+    private static final int MAX_SIMS = 10000; // Most sims of a sequential run
+    private static double simTime; // Max simulation time, default is 72000
+    private static double interATime; // train inter-arrive rate, default is 10
+    private static int nSims; // N simulations
+    private static int nThreads; // Worker threads running the simulations
+    private static boolean heapEngine; // Use EventSim instead of CSIM processes
+    private static boolean threadEngine; // Use ProcessSim instead of CSIM processes
+    private static String traceMode; // off, text, async or bin
+    private static String traceFile; // Binary trace file for the bin mode
+    private static long seed; // Master seed of every sim
+    private static RandomStreams streams; // Random streams of every sim, from 'seed'
+    private static RoutedOutput console; // System.out routed per replication
+    private int simId; // This replication's id
+    private PrintStream out; // Where this replication prints to
+    private TraceSink trace; // Where this replication's event trace goes
+    private ByteArrayOutputStream buffer; // Output held back for ordering
+    private TrainStats stats; // This replication's statistics
+    private double hours; // Time this replication ended at
+    private TrainStats total; // Statistics of every simulation, merged
+    private int merged; // Simulations merged into 'total'
+    private boolean endSim = false; // Flag used to stop simulation
+    private static boolean premade; // Flag used to decide how we are getting values
+    private static int nDocks; // Unloading docks in the yard, default is 1
+    private static Yard.Policy policy; // How trains are given docks
+    private static int nCrews; // Replacement crews in the pool, 0 for no limit
+    private static double ci; // Relative half-width to stop at, 0 for fixed runs
+    private static String checkpointFile; // Where the run is saved, null for nowhere
+    private static double checkpointEvery; // Simulated hours between sim snapshots
+    private static Checkpoint resumed; // Where a resumed run starts from, else null
+    private static int metricsPort; // Port of the metrics, 0 for JMX only, -1 for off
+    private static double metricsLog; // Seconds between metrics log lines, 0 for none
+    private static String statesFile; // State log file, null for none
+    private static double streamGap; // Longest gap of a streamed -s schedule, -1 for no streaming
+    private static boolean antithetic; // Run the sims as antithetic pairs
+    private static String cacheDir; // Directory of the result cache, null for none
+    private static double cacheMB; // Most megabytes the result cache keeps
+    private static ResultCache cache; // Results of earlier runs, null if not used
+    private static boolean controlVariates; // Correct the estimate with control variates
+    private static String[] runArgs; // Arguments of the run, with its seed
     private static String schedFile; // Schedule of trains file
     private static String travelFile; // crew travel times file
-    private FCFSFacility dock; // The unloading dock
+    private Yard<Train> yard; // The unloading docks
+    private CrewPool<Crew> pool; // The replacement crews
     private Gen gen; // Class used to generate each train arrival
     private TrainSimUtil util; // Used to generate or grab next train/crew value
     private LastTrain lastTrain; // Last train event used to end a sim
+    private Metrics.Recorder metrics; // Live metrics of this replication, null if off
+    private StateLog states; // Log of the state changes of this replication, null if off
     enum CrewStat { ONCLOCK, HOGGED }; // Crew statuses 
     enum TrainStat { INQ, INDOCK }; // Train statuses 
-    private Table timeInTable; // Table of per-train time in system times
-    private Table idleTable; // Table of dock idle times (per sim)
-    private Table busyTable; // Table of dock busy times (per sim)
-    private Table hoggedTable; // Table of crew hogged in dock time (per sim)
-    private Table timeInQ; // Table of per-train times spent in queue
-    private static int maxQ; // The max train queue size (per sim)
-    private int[] histogram; // Train hogout histogram (per sim)
     private Table conf;  // Table of per-train means of each sim
 
-    // Simulation class used to simulate the unloading dock
-    private class Sim extends Process {
-        public Sim() {
-            super( "Sim " + Integer.toString(simCount++) );
-            if( premade ) {
-                try{
-                    // Create a new utility object with predefined values
-                    util = new TrainSimUtil( schedFile, travelFile );
-                } catch( FileNotFoundException e ) { 
-                    System.out.println( "Could not find files" );
-                    System.exit(0);
-                } catch( IOException e ) {
-                    System.out.println( "Could not open files" );
-                    System.exit(0);
+    // Create the utility object of this replication
+    private TrainSimUtil newUtil() {
+        if( premade ) {
+            try{
+                // Create a new utility object with predefined values, read
+                // ahead on threads of their own with -stream
+                if( streamGap >= 0 )
+                    return new TrainSimUtil( schedFile, travelFile, streamGap, System.err );
+                return new TrainSimUtil( schedFile, travelFile );
+            } catch( FileNotFoundException e ) { 
+                System.out.println( "Could not find files" );
+                System.exit(0);
+            } catch( IOException e ) {
+                System.out.println( "Could not open files" );
+                System.exit(0);
+            }
+        }
+        // Create a new utility object that generates values
+        TrainSimUtil values = new TrainSimUtil( interATime, TrainSimUtil.UNLOAD_A,
+            TrainSimUtil.UNLOAD_B, TrainSimUtil.CREW_A, TrainSimUtil.CREW_B,
+            TrainSimUtil.REPLACE_A, TrainSimUtil.REPLACE_B,
+            antithetic ? streams.antithetic( simId ) : streams.replication( simId ) );
+        // Controls of as many trains as the run expects, for -cv
+        values.controls( (int) Math.ceil( simTime / interATime ) );
+        return values;
+    }
+
+    // Runs the simulations on a worker pool, each in its own model, and
+    // merges their means into the confidence table in simulation order.
+    // With -ci the run is sequential: no more than one sim per thread is
+    // ahead of the merge, and once the interval of the means is narrow
+    // enough the sims still running are waited for and thrown away, so the
+    // result does not depend on the number of threads. With -checkpoint
+    // every sim merged is added to the journal, and a resumed run merges
+    // the journal's sims again before it goes on with the next one.
+    private class Merge extends Process {
+        private VarianceReduction reduction; // Null without -antithetic or -cv
+        public Merge() {
+            super( "Merge" );
+        }
+        public void run() {
+            conf = new Table( "Confidence interval of the means of in system time" );
+            conf.run_length( ci > 0 ? ci : .01, CONFIDENCE, MAX_SIMS );
+            conf.setPermanent( true );
+            // Keep CSIM's own prints from a worker out of the replications' output
+            console = new RoutedOutput( System.out );
+            System.setOut( new PrintStream( console, true ) );
+            total = new TrainStats( nDocks );
+            merged = 0;
+            Accumulator means = new Accumulator(); // Estimate of each sim
+            ExecutorService pool = Executors.newFixedThreadPool( nThreads );
+            ArrayDeque<Future<TrainSim>> reps = new ArrayDeque<Future<TrainSim>>();
+            Checkpoint journal = null; // Null without -checkpoint
+            if( antithetic || controlVariates )
+                reduction = new VarianceReduction( antithetic, controlVariates,
+                    VarianceReduction.means( interATime, TrainSimUtil.UNLOAD_A,
+                    TrainSimUtil.UNLOAD_B, TrainSimUtil.CREW_A, TrainSimUtil.CREW_B ) );
+            if( resumed != null ) {
+                for( TrainStats s : resumed.sims ) {
+                    merge( s, means );
+                    conf.confidence();
                 }
+                System.out.printf( "Resumed after %d simulations\n", merged );
             }
-            else { 
-                // Create a new utility object that generates values
-                util = new TrainSimUtil( interATime, 3.5, 4.5, 6.0, 11.0, 2.5, 3.5 ); 
+            int submitted = merged;
+            int ahead = ci > 0 ? nThreads : nSims; // Sims submitted ahead of the merge
+            boolean done = ci > 0 && precise( means ); // A resumed run may be done already
+            try {
+                // Started before any sim ends too, so their snapshots can be
+                // resumed. A resumed journal is written again without a
+                // record the kill cut short
+                if( checkpointFile != null )
+                    journal = Checkpoint.create( checkpointFile, runArgs, resumed != null
+                        ? resumed.sims : new ArrayList<TrainStats>() );
+                while( !done && submitted < nSims && reps.size() < ahead )
+                    reps.add( submit( pool, submitted++ ) );
+                // Wait on the sims in order so the merge is deterministic
+                while( !reps.isEmpty() ) {
+                    TrainSim rep = reps.poll().get();
+                    merge( rep.stats, means );
+                    if( journal != null )
+                        journal.add( rep.stats );
+                    if( rep.buffer != null )
+                        rep.buffer.writeTo( System.out );
+                    conf.confidence(); // We want confidence interval in the report 
+                    if( ci > 0 && precise( means ) ) {
+                        // Let the sims ahead finish, CSIM models cannot be cut short
+                        for( Future<TrainSim> f : reps )
+                            f.get();
+                        break;
+                    }
+                    if( submitted < nSims )
+                        reps.add( submit( pool, submitted++ ) );
+                }
+                if( merged > 1 )
+                    total.printMerged( System.out, merged );
+                if( ci > 0 )
+                    printSequential( means );
+                if( reduction != null )
+                    reduction.print( System.out, CONFIDENCE );
+                if( cache != null )
+                    System.out.println( cache.summary() );
+                if( journal != null )
+                    journal.close();
+            } catch( ExecutionException e ) {
+                // An exception would end this process and leave CSIM waiting on it
+                System.out.println( "Error running simulations: " + e.getCause().getMessage() );
+                System.exit(0);
+            } catch( InterruptedException | IOException e ) {
+                System.out.println( "Error running simulations: " + e.getMessage() );
+                System.exit(0);
+            } finally {
+                pool.shutdownNow();
+                System.setOut( console.console );
             }
         }
+
+        private Future<TrainSim> submit( ExecutorService pool, final int id ) {
+            return pool.submit( new Callable<TrainSim>() {
+                public TrainSim call() throws IOException {
+                    return replicate( id );
+                }
+            } );
+        }
+
+        // Merge the statistics of the next sim into the table, the totals
+        // and the variance reduction
+        private void merge( TrainStats s, Accumulator means ) {
+            double estimate = s.estimate();
+            conf.record( estimate );
+            means.record( estimate );
+            if( reduction != null )
+                reduction.record( estimate, s.controls() );
+            total.merge( s );
+            merged++;
+        }
+
+        // True once the interval of the sims' means, variance-reduced if
+        // asked for, is as narrow as asked for. Antithetic sims stop only
+        // once every pair is whole
+        private boolean precise( Accumulator means ) {
+            if( reduction != null )
+                return (!antithetic || means.count() % 2 == 0)
+                    && reduction.observations() >= MIN_SIMS
+                    && reduction.halfWidth( CONFIDENCE ) <= ci * Math.abs( reduction.mean() );
+            return means.count() >= MIN_SIMS && StudentT.halfWidth( CONFIDENCE,
+                means.count(), means.stddev() ) <= ci * Math.abs( means.mean() );
+        }
+
+        private void printSequential( Accumulator means ) {
+            double mean = reduction != null ? reduction.mean() : means.mean();
+            double half = reduction != null ? reduction.halfWidth( CONFIDENCE )
+                : StudentT.halfWidth( CONFIDENCE, means.count(), means.stddev() );
+            System.out.println("");
+            System.out.printf( "%s after %d simulations: time-in-system %.2fh +- %.2fh "
+                + "(%.0f%% interval, %.2f%% of the mean)\n",
+                precise( means ) ? "Converged" : "Not converged", means.count(),
+                mean, half, CONFIDENCE * 100, half / Math.abs( mean ) * 100 );
+        }
+    }
+
+    // Simulation class used to simulate the unloading dock
+    private class Sim extends Process {
+        public Sim() {
+            super( "Sim " + Integer.toString(simId) );
+            util = newUtil();
+        }
         public void run() {
-            // If the confidence interval table already exist don't recreate it
-            if( conf == null ) {
-                conf = new Table( "Confidence interval of the means of in system time" );
-                conf.run_length(.01, .99, 10000 );
-                conf.setPermanent( true );
-            }
             // Set initializations
             endSim = false;
-            dock = new FCFSFacility("Unloading Dock", 1);
+            yard = new Yard<Train>( nDocks, policy );
+            pool = new CrewPool<Crew>( nCrews );
             gen = new Gen();
-            /* table initializations */
-            timeInTable = new Table( "Time in system" );
-            idleTable = new Table( "Dock idle table" );
-            busyTable = new Table( "Dock busy table" );
-            hoggedTable = new Table( "Dock Hogged-out table" );
-            timeInQ = new Table( "Time in queue" );
-            /* end table initializations */
-            // initialize the histogram to 0 
-            histogram = new int[100];
-            for( int i = 0; i < 100; ++i)
-                histogram[i] = 0;
-            maxQ = 0;
+            stats = new TrainStats( nDocks, newSteady() );
+            metrics = metricsOn() ? Metrics.REGISTRY.recorder( nDocks ) : null;
+            states = newStates();
             // Create the last train Event
             lastTrain = new LastTrain();
             // start generating train arrivals 
@@ -128,49 +566,35 @@ public class TrainSim extends Model {
             lastTrain.untimed_wait();
             // Fixes the error of not waiting for last departure 
             hold( 10.0 );
-            // Record the simulations time-in-system mean
-            conf.record( timeInTable.mean() );
             // Establish the time the this sim ended at
-            System.out.printf( "Time %.2f: simulation ended\n", clock() );
+            hours = clock();
+            trace.ended( clock() );
+            if( states != null )
+                states.end( clock() );
+            try {
+                // The trace has to be out before the statistics
+                trace.flush();
+            } catch( IOException e ) {
+                System.out.println( "Error writing trace" );
+                System.exit(0);
+            }
             // Print relative statistics
-            printStats();
+            stats.print( out, clock() );
+            if( metrics != null )
+                metrics.close();
+            // Draws what is left of the controls if the run stopped early
+            stats.controls( util.controls() );
             try {
                 // Closes files if needed to
                 util.finalize();
+                trace.close();
+                if( states != null )
+                    states.close();
             } catch( IOException e ) {
                 System.out.println( "Error closing files" );
                 System.exit(0);
             }
         }
-
-        // Simulation statistics
-        public void printStats() {
-            FacilityStats stats = dock.stats();
-            System.out.println("");
-            System.out.println( "Statistics" );
-            System.out.println( "----------" );
-            System.out.printf( "Total number of trains served: %d\n", stats.completions() ); 
-            System.out.printf( "Average time-in-system per train: %.2fh\n", timeInTable.mean() );
-            System.out.printf( "Maximum time-in-system per train: %.2fh\n", timeInTable.max() );
-            System.out.printf( "Dock idle percentage: %.2f%%\n", idleTable.sum() / clock() * 100);
-            System.out.printf( "Dock busy percentage: %.2f%%\n", busyTable.sum() / clock() * 100);
-            System.out.printf( "Dock hogged-out percentage: %.2f%%\n", hoggedTable.sum() / clock() * 100);
-            System.out.printf( "Time average of trains in queue: %.3f\n", timeInQ.sum() / stats.completions() );
-            System.out.printf( "Maximum number of trains in queue: %d\n", maxQ );
-            System.out.println( "Histogram of hogout count per train:" );
-            printHisto();
-            conf.confidence(); // We want confidence interval in the report 
-        }
-
-        // Histogram to print    
-        public void printHisto() {
-            for( int i = 0; i < 100; ++i ) {
-                if( histogram[i] != 0 ) { // Don't print zero values
-                    System.out.printf( "[%d]: %d\n", i, histogram[i] );
-                }
-            }
-        } 
-
     }
 
     // Generate train arrivals class
@@ -185,7 +609,7 @@ public class TrainSim extends Model {
         public void run() {
             while( true ) {
                 // Create a new train
-                Train t = new Train();
+                Train t = new Train( getTrainId() );
                 // If train can't be made simTime is up or file is empty
                 if (endSim) break;
                 // Hold inter arrival time amount till next train
@@ -194,16 +618,17 @@ public class TrainSim extends Model {
                 add( t );
             }
         }
-        public String getTrainId() {
-            return Integer.toString( trainId++ );
+        public int getTrainId() {
+            return trainId++;
         }
-        public String getCrewId() {
-            return Integer.toString( crewId++ );
+        public int getCrewId() {
+            return crewId++;
         }
     }
     
     // Train class
     private class Train extends Process {
+        private final int id; // Train id
         private double startTime; // Time the train starts in the system
         private double endQTime; // Time the train left the queue
         private double iarTime; // This trains inter-arrival time
@@ -211,45 +636,48 @@ public class TrainSim extends Model {
         private double cClock; // Crews remaining hours 
         private TrainStat status; // Current status of the train
         private Crew crew; // The connected crew process
+        private Yard.Ticket<Train> ticket; // The trains place in the yard
+        private double gotDock; // Time the train got its dock
         private Event eHogout; // hogout event
         private Event eNewCrew; // new crew arrival event
-        public Train() {
-            super( gen.getTrainId() );
+        private Event eGotDock; // given a dock event
+        public Train( int id ) {
+            super( Integer.toString( id ) );
+            this.id = id;
             try{
-                // Used to hold relevant train values (generated or ungenerated)
-                String[] tokens = util.getNextTrainValues();
-                // If Sim time is up or schedule file is empty, signal for endSim
-                if( tokens == null || simTime < clock() ) {
+                // Move to the next train values (generated or ungenerated)
+                // If Sim time is up, schedule file is empty or the run reached
+                // steady state, signal for endSim
+                if( !util.nextTrain() || simTime < clock() || stats.isSteady() ) {
                     endSim = true;
                     return;
                 }
                 // Used to adjust for the schedule file having exact arrival times
                 // and not inter-arrival times
                 if( premade )
-                    iarTime = Double.parseDouble( tokens[0] ) - clock();
+                    iarTime = util.arrival() - clock();
                 else 
-                    iarTime = Double.parseDouble( tokens[0] ); 
-                unloadTime = Double.parseDouble( tokens[1] );
+                    iarTime = util.arrival(); 
+                unloadTime = util.unload();
                 /* create events */
                 eHogout = new Hogout();
                 eNewCrew = new NewCrew();
                 /* end */ 
-                cClock = Double.parseDouble( tokens[2] );
+                cClock = util.crewHours();
                 startTime = 0.0;
                 endQTime = 0.0;
             } catch( IOException e ) { 
-                System.out.println( "Error reading from schedule file" ); 
+                System.out.println( "Error reading from schedule file: " + e.getMessage() );
                 System.exit(0);
             }
         }
 
         public void run() {
-            boolean jump = false; // Used to not get stuck in an immediate next hogout
             double dockIdle = 0.0; // Used for dock idle stats
             double dockHog = 0.0; // Used for dock hogged stats
             double start = 0.0; // Used to mark a start point to record from
             // Busy time is just unload time
-            busyTable.record(unloadTime);
+            stats.arrival( unloadTime );
             // * TRAIN ARRIVES */
             startTime = clock();
             // Crew times start
@@ -259,8 +687,24 @@ public class TrainSim extends Model {
             /* TRAIN ENTER QUEUE */
             // Set trains status to in queue
             status = TrainStat.INQ;
-            // Train waits for its turn in the dock
-            dock.reserve();
+            // Train waits for its turn in a dock
+            ticket = yard.arrive( this, crew.hogoutAt );
+            if( metrics != null )
+                metrics.arrival( clock(), yard.queued() );
+            if( states != null ) {
+                states.queue( clock(), yard.queued() );
+                states.crew( clock(), id, StateLog.BUSY );
+            }
+            if( ticket.dock() < 0 ) {
+                eGotDock = new GotDock();
+                eGotDock.untimed_wait();
+            }
+            gotDock = clock();
+            dockState( crew.status == CrewStat.HOGGED ? StateLog.HOGGED : StateLog.BUSY );
+            // Hogouts and crews that came while in the queue are over with,
+            // only those from here on are waited for
+            eHogout.clear();
+            eNewCrew.clear();
             // Update time till crew hogs out
             crew.updateTimeLeft();
             /* MOVES INTO DOCK IF NOT HOGGED */
@@ -269,8 +713,9 @@ public class TrainSim extends Model {
             if( crew.status == CrewStat.HOGGED ) {
                 start = clock();// mark start
                 printStuckInQ();
+                if( metrics != null )
+                    metrics.event( clock() );
                 eNewCrew.untimed_wait();// wait for the new crew
-                jump = true; // Used to not get stuck in an immediate next hogout
                 dockIdle += (clock() - start); // stat taking 
             }
             endQTime = clock();
@@ -278,10 +723,12 @@ public class TrainSim extends Model {
             crew.updateTimeLeft();
             /* IN DOCk */
             printEnterDock();
+            if( metrics != null )
+                metrics.event( clock() );
             status = TrainStat.INDOCK;
             // If crew hogs out during unloading, stop unloading and wait for a new crew.
             // After new crew arrives continue the remaining unloading
-            if( !jump && eHogout.timed_wait( unloadTime ) ) {
+            if( eHogout.timed_wait( unloadTime ) ) {
                 start = clock(); // mark start
                 unloadTime -= (clock() - endQTime); // update unloading time to remaining
                 eNewCrew.untimed_wait(); // wait for new crew
@@ -293,84 +740,79 @@ public class TrainSim extends Model {
             // Train is unloaded and departing from the dock. Crew process stopped.
             crew.depart();
             printDeparture();
-            checkMaxQ(); // Check for new max queue size
-            dock.release();
-            updateHisto(); // update histogram
-            // Time in the system
-            timeInTable.record(clock() - startTime);
-            // Time in queue
-            timeInQ.record( endQTime - startTime );
-            // Dock idle time
-            idleTable.record(dockIdle);
-            // Dock hogged-out time
-            hoggedTable.record(dockHog);
-            // Send out last train event when end sim flag is raised
-            if( endSim ) {
+            stats.queue( yard.queued() ); // Check for new max queue size
+            // Hand the dock to the next train
+            Yard.Ticket<Train> next = yard.depart( ticket.dock() );
+            if( next != null )
+                next.train.eGotDock.set();
+            // Time in the system and queue, dock idle and hogged-out time
+            stats.departure( clock() - startTime, endQTime - startTime, dockIdle, dockHog,
+                crew.hogoutCount, ticket.dock(), clock() - gotDock );
+            if( metrics != null )
+                metrics.departure( clock(), clock() - startTime, endQTime - startTime,
+                    clock() - gotDock, yard.queued() );
+            if( states != null ) {
+                states.crew( clock(), id, StateLog.GONE );
+                states.dock( clock(), ticket.dock(), StateLog.IDLE );
+                states.queue( clock(), yard.queued() );
+            }
+            // Send out last train event when end sim flag is raised and
+            // every train that came has left
+            if( endSim && yard.trains() == 0 ) {
                 lastTrain.set();
             }
         }
 
         /* PRINT FUNCTIONS */
         public void printArrival() {
-            System.out.printf("Time %.2f: train %s arrival for %.2fh of unloading, " +
-                               "crew %s with %.2fh before hogout (Q=%d)\n",
-                               model.clock(), this.name(), this.unloadTime,
-                               crew.id, crew.timeLeft, dock.qlength());
+            trace.arrival( model.clock(), id, unloadTime, crew.id, crew.timeLeft,
+                           yard.queued() );
         }
         public void printEnterDock() {
-            System.out.printf("Time %.2f: train %s entering dock for %.2fh of "
-                + "unloading, crew %s with %.2fh before hogout\n",
-                               model.clock(), this.name(), this.unloadTime,
-                               crew.id, crew.timeLeft);
+            trace.enterDock( model.clock(), id, unloadTime, crew.id, crew.timeLeft );
         }
         public void printDeparture() {
-            System.out.printf("Time %.2f: train %s departing (Q=%d)\n",
-                               model.clock(), this.name(), dock.qlength());
+            trace.departure( model.clock(), id, yard.queued() );
         }
         public void printHogoutInQ() {
-            System.out.printf("Time %.2f: train %s crew %s hogged out in queue\n",
-                               model.clock(), this.name(), crew.id);
+            trace.hogoutInQ( model.clock(), id, crew.id );
         }
         public void printHogoutInDock() {
-            System.out.printf("Time %.2f: train %s crew %s hogged out during " 
-                              + "service (SERVER HOGGED)\n",
-                               model.clock(), this.name(), crew.id);   
+            trace.hogoutInDock( model.clock(), id, crew.id );
         }
         public void printCrewArrival() {
-             System.out.printf("Time %.2f: train %s replacement crew %s arrives " 
-                              + "(SERVER UNHOGGED)\n",
-                               model.clock(), this.name(), crew.id); 
+            trace.crewArrival( model.clock(), id, crew.id );
         }
         public void printStuckInQ() {
-             System.out.printf("Time %.2f: train %s crew %s hasn't arrived yet, " 
-                              + "cannot enter dock (SERVER HOGGED)\n",
-                               model.clock(), this.name(), crew.id); 
+            trace.stuckInQ( model.clock(), id, crew.id );
         }
         /* END */
 
-        // Will compare current max to queue size, update if needed
-        public void checkMaxQ() {
-            if( dock.qlength() > maxQ )
-                maxQ = dock.qlength();
-        }
-        
-        // Updates the hogout histogram
-        public void updateHisto() {
-            for( int i = 0; i <= crew.hogoutCount; ++i )
-                histogram[i]++;
+        // The crew was replaced, which moves the train in a CREW queue
+        public void crewChanged() {
+            if( ticket != null && ticket.dock() < 0 )
+                yard.rekey( ticket, crew.hogoutAt );
         }
 
+        // Log the state of the train's dock, if it holds one
+        public void dockState( int state ) {
+            if( states != null && ticket != null && ticket.dock() >= 0 )
+                states.dock( clock(), ticket.dock(), state );
+        }
     }
 
     // The crew class process
     private class Crew extends Process {
         Train train; // Reference to its train
-        private String id; // Crew id
+        private int id; // Crew id
         private CrewStat status; // Crew status
         private double timeLeft; // Time till crew hogs out
         private double crewArrivalTime; // The time the new crew arrived at
         private int hogoutCount; // count how many times this train had a crew hogout
         private boolean departed; // If the crew has departed or not
+        private double hogoutAt; // Time the crew on the clock hogs out
+        private boolean fromPool; // The crew on the clock was taken from the pool
+        private Event ePoolCrew; // pool crew handed over event
         public Crew( Train t, Double tLeft ) {
             super( "Crew" );
             train = t;
@@ -379,6 +821,8 @@ public class TrainSim extends Model {
             hogoutCount = 0;
             departed = false;
             id = gen.getCrewId();
+            hogoutAt = clock() + tLeft;
+            fromPool = false;
         }
 
         public void run() {
@@ -397,24 +841,57 @@ public class TrainSim extends Model {
                     train.printHogoutInDock();
                 }
                 try {
-                    // Get new crew arrival time
-                    double timeTillAr = util.getNextCrewArrival();
-                    // Adjust remaining hours from arrival time
-                    timeLeft = (12.0 - timeTillAr);
                     // Set the status of the crew and update info
                     status = CrewStat.HOGGED;
                     hogoutCount++;
+                    if( metrics != null )
+                        metrics.hogout( clock() );
+                    if( states != null ) {
+                        states.crew( clock(), train.id, StateLog.HOGGED );
+                        train.dockState( StateLog.HOGGED );
+                    }
                     id = gen.getCrewId();
                     train.eHogout.set();
+                    /* WAIT FOR A CREW FROM THE POOL */
+                    release();
+                    double asked = clock();
+                    if( !pool.take( this ) ) {
+                        if( ePoolCrew == null )
+                            ePoolCrew = new PoolCrew();
+                        ePoolCrew.untimed_wait();
+                    }
+                    if( pool.limited() ) {
+                        fromPool = true;
+                        stats.crewWait.record( clock() - asked );
+                        // The train left while waiting, nobody needs the crew
+                        if( departed ) {
+                            release();
+                            break;
+                        }
+                    }
+                    // Get new crew arrival time
+                    double timeTillAr = util.getNextCrewArrival();
+                    // Adjust remaining hours from arrival time
+                    timeLeft = (12.0 - timeTillAr);
                     /* WAIT FOR NEW CREWW */
                     hold( timeTillAr );
                     train.printCrewArrival();
+                    if( metrics != null )
+                        metrics.event( clock() );
+                    if( states != null && !departed ) {
+                        states.crew( clock(), train.id, StateLog.BUSY );
+                        train.dockState( StateLog.BUSY );
+                    }
                     crewArrivalTime = clock();
                     status = CrewStat.ONCLOCK;
+                    hogoutAt = clock() + timeLeft;
+                    train.crewChanged();
+                    if( departed )
+                        release();
                     // Set the event 
                     train.eNewCrew.set();
                 } catch( IOException e) { 
-                    System.out.println( "Error reading from travel times file" ); 
+                    System.out.println( "Error reading from travel times file: " + e.getMessage() );
                     System.exit(0);
                 }
             }
@@ -422,6 +899,17 @@ public class TrainSim extends Model {
 
         public void depart() {
             departed = true;
+            if( status == CrewStat.ONCLOCK )
+                release();
+        }
+
+        // Put a crew taken from the pool back and hand it to the next in line
+        private void release() {
+            if( !fromPool ) return;
+            fromPool = false;
+            Crew next = pool.give();
+            if( next != null )
+                next.ePoolCrew.set();
         }
 
         public void updateTimeLeft() {
@@ -442,6 +930,18 @@ public class TrainSim extends Model {
         }
     }
 
+    private class GotDock extends Event {
+        public GotDock() {
+            super("Got A Dock");
+        }
+    }
+
+    private class PoolCrew extends Event {
+        public PoolCrew() {
+            super("Pool Crew Handed Over");
+        }
+    }
+
     private class LastTrain extends Event {
         public LastTrain() {
             super("Last Train Event");
@@ -449,94 +949,30 @@ public class TrainSim extends Model {
     }
     /* END */
 
-    // Used to get all the different times needed for the sim
-    private class TrainSimUtil {
-        boolean generateValues; // Flag for generating or reading values
-        double arrRate = 10.0; // Train arrival rate
-        double unTimeA = 3.5; // Unload rate start range
-        double unTimeB = 4.5; // Unload rate end range
-        double crewWorkTimeA = 6.0; // Crews time left start range;
-        double crewWorkTimeB = 11.0; // Crews time left end range;
-        double replaceTimeA = 2.5; // Replacement crews arrival start range;
-        double replaceTimeB = 3.5; // Replacement crews arrival end range;
-        BufferedReader brSchedule = null; // Used to read train schedules file
-        BufferedReader brTravel = null; // Used to read crew arrival time schedules
-        Random randArr = new Random(); // Random number generator for train arrival times
-        Random randUn = new Random(); // Random number generator for train unload times
-        Random randRemain = new Random();// Random number generator for remaining crew times
-        Random randReplace = new Random(); // Random number generator for replacement crew arrival times
-        /*
-        Constructor for randomly generated values
-        Parameter(1): Train arrival rate
-        Parameter(2): Total simulation hours
-        */
-        TrainSimUtil( double arrival, double unloadA, double unloadB, 
-            double crewA, double crewB, double replaceA, double replaceB) {
-            // Assign values
-            generateValues = true;
-            arrRate = arrival;
-            unTimeA = unloadA;
-            unTimeB = unloadB;
-            crewWorkTimeA = crewA;
-            crewWorkTimeB = crewB;
-            replaceTimeA = replaceA;
-            replaceTimeB = replaceB;
-        }
-        
-        /*
-        Constructor for pre-generated values
-        Parameter(1): File location to train arrival schedule, unloading time, and
-        remaining crew hours
-        Parameter(2): File location to train
-        */
-        TrainSimUtil( String schedule, String travelTimes ) throws FileNotFoundException, IOException {
-            generateValues = false;
-            // Open files for reading pre-made values
-            brSchedule = new BufferedReader( new FileReader(schedule) );
-            brTravel = new BufferedReader( new FileReader(travelTimes) );
-        }
-        // 'Destructor' used to close open files
-        public void finalize() throws IOException { 
-            if( brSchedule != null )
-                brSchedule.close();
-            if( brTravel != null )
-                brTravel.close();
-        }
-        // Return train arrival, unloading, and crews remaining hours
-        // Randomly generated values or pre-made values depend on flag
-        // Return null if the file is empty
-        public String[] getNextTrainValues() throws IOException {
-            if( !generateValues ) {
-                String line;
-                if( (line = brSchedule.readLine()) != null ) {
-                    String[] tokens = line.split(" ");
-                    return tokens;
-                } else {
-                    return null;
-                }
-            } else {
-                String[] tokens = new String[3];
-                tokens[0] = Double.toString( randArr.exponential(arrRate) );
-                tokens[1] = Double.toString( randUn.uniform(unTimeA, unTimeB ) );
-                tokens[2] = Double.toString( randRemain.uniform( crewWorkTimeA, crewWorkTimeB ) );
-                return tokens;
-            }
-        }
-
-        // Return the new crews arrival times
-        // Randomly generated values or pre-made values depend on flag
-        // Return a value < 0 if the file is empty
-        public double getNextCrewArrival() throws IOException {
-            if( !generateValues ) {
-                String line;
-                if( (line = brTravel.readLine()) != null ) {
-                    return Double.parseDouble( line );
-                } else {
-                    return -1.0;
-                }
-            } else {
-                return randReplace.uniform( replaceTimeA, replaceTimeB );
-            }
+    // Sends System.out writes of a replication's worker thread where it is
+    // routed to and everything else to the console
+    private static class RoutedOutput extends OutputStream {
+        private final PrintStream console; // The original System.out
+        private final ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+        public RoutedOutput( PrintStream console ) {
+            this.console = console;
+        }
+        public void route( OutputStream o ) {
+            if( o == null )
+                target.remove();
+            else
+                target.set( o );
+        }
+        public void write( int b ) throws IOException {
+            OutputStream o = target.get();
+            (o != null ? o : console).write( b );
+        }
+        public void write( byte[] b, int off, int len ) throws IOException {
+            OutputStream o = target.get();
+            (o != null ? o : console).write( b, off, len );
+        }
+        public void flush() throws IOException {
+            console.flush();
         }
     }
 }
@@ -0,0 +1,304 @@
+package com.trainsim;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+// Benchmarks of the simulation and its value pipeline, run the way JMH
+// runs them: warm-up iterations, then measured iterations of at least a
+// second each, reported as the mean and its 99.9% confidence interval.
+// B/op is the heap allocated per operation by every thread, CSIM's
+// included, counted from the garbage collections and the heap in use.
+// Usage: TrainSimBench [-wi <warm-ups>] [-i <iterations>] [benchmark prefix ...]
+public class TrainSimBench {
+    private static final long ITERATION_NS = 1000000000L; // Least time per iteration
+    private static final int TRAINS = 1000000; // Trains per value pipeline operation
+    private static final AtomicLong freed = new AtomicLong(); // Bytes freed by every GC
+    private static final AtomicLong collections = new AtomicLong(); // GCs seen by 'freed'
+    private static final PrintStream nowhere =
+        new PrintStream( OutputStream.nullOutputStream() ); // Swallows the sims' output
+    private static double sink; // Keeps the JIT from dropping the work
+
+    // One benchmark, each operation does run() and counts what it did
+    private abstract static class Bench {
+        final String name;
+        final boolean throughput; // Report ops per second, else ns per op
+        final String unit;
+        Bench( String name, boolean throughput, String unit ) {
+            this.name = name;
+            this.throughput = throughput;
+            this.unit = unit;
+        }
+        // Do one operation and return how many ops (trains, events...) it was
+        abstract long run() throws IOException;
+    }
+
+    public static void main( String[] args ) throws IOException {
+        int warmups = 3;
+        int iterations = 5;
+        List<String> only = new ArrayList<String>();
+        for( int i = 0; i < args.length; ++i ) {
+            if( args[i].equals( "-wi" ) && i + 1 < args.length )
+                warmups = Integer.parseInt( args[++i] );
+            else if( args[i].equals( "-i" ) && i + 1 < args.length )
+                iterations = Integer.parseInt( args[++i] );
+            else
+                only.add( args[i] );
+        }
+        watchCollections();
+        List<Bench> benches = benches();
+        System.out.printf( "# JDK %s, %d CPUs, %d warm-up and %d measured iterations of %ds\n",
+            System.getProperty( "java.version" ), Runtime.getRuntime().availableProcessors(),
+            warmups, iterations, ITERATION_NS / 1000000000L );
+        System.out.printf( "%-22s %5s %4s %16s    %12s  %-9s %10s\n",
+            "Benchmark", "Mode", "Cnt", "Score", "Error", "Units", "B/op" );
+        for( Bench b : benches ) {
+            if( !only.isEmpty() && !matches( b.name, only ) ) continue;
+            measure( b, warmups, iterations );
+        }
+    }
+
+    private static boolean matches( String name, List<String> prefixes ) {
+        for( String p : prefixes )
+            if( name.startsWith( p ) ) return true;
+        return false;
+    }
+
+    private static List<Bench> benches() throws IOException {
+        List<Bench> benches = new ArrayList<Bench>();
+        // Whole simulations at the default 10.0/72000 configuration, the
+        // same with live metrics recorded next to them, the difference is
+        // their overhead
+        final String[] generated = { "-trace", "off", "-seed", "1", "10.0", "72000" };
+        final String[] metered = { "-trace", "off", "-metrics", "0", "-seed", "1", "10.0", "72000" };
+        final String[] file = { "-trace", "off", "-s", "schedule.txt", "traveltimes.txt" };
+        for( final String engine : new String[] { "csim", "heap", "threads" } ) {
+            benches.add( new Bench( "sim.generated." + engine, true, "trains/s" ) {
+                long run() {
+                    return simulate( engine, generated ).timeIn.count();
+                }
+            } );
+            benches.add( new Bench( "sim.metrics." + engine, true, "trains/s" ) {
+                long run() {
+                    return simulate( engine, metered ).timeIn.count();
+                }
+            } );
+            benches.add( new Bench( "sim.file." + engine, true, "trains/s" ) {
+                long run() {
+                    return simulate( engine, file ).timeIn.count();
+                }
+            } );
+        }
+        // Cost of each arrival, dock entry, hogout, crew arrival and departure
+        final long events = countEvents( generated );
+        for( final String engine : new String[] { "csim", "heap", "threads" } ) {
+            benches.add( new Bench( "event." + engine, false, "ns/event" ) {
+                long run() {
+                    simulate( engine, generated );
+                    return events;
+                }
+            } );
+        }
+        // The train value pipeline on its own
+        final TrainSimUtil gen = new TrainSimUtil( 10.0, 3.5, 4.5, 6.0, 11.0, 2.5, 3.5, 1L );
+        benches.add( new Bench( "util.generate", false, "ns/train" ) {
+            long run() throws IOException {
+                return drain( gen, TRAINS );
+            }
+        } );
+        final String text = writeSchedule( gen, TRAINS );
+        benches.add( new Bench( "util.parse.text", false, "ns/train" ) {
+            long run() throws IOException {
+                return drain( new TrainSimUtil( text, text ), TRAINS );
+            }
+        } );
+        benches.add( new Bench( "util.parse.stream", false, "ns/train" ) {
+            long run() throws IOException {
+                return drain( new TrainSimUtil( text, text, 0.0, null ), TRAINS );
+            }
+        } );
+        File columnar = File.createTempFile( "schedule", ".tscl" );
+        columnar.deleteOnExit();
+        ColumnarFile.convert( text, columnar.getPath() );
+        final String bin = columnar.getPath();
+        benches.add( new Bench( "util.parse.columnar", false, "ns/train" ) {
+            long run() throws IOException {
+                return drain( new TrainSimUtil( bin, bin ), TRAINS );
+            }
+        } );
+        return benches;
+    }
+
+    // Run the warm-ups and iterations of 'b' and print its score
+    private static void measure( Bench b, int warmups, int iterations ) throws IOException {
+        PrintStream console = System.out;
+        System.setOut( nowhere );
+        double[] scores = new double[iterations];
+        double bytes = 0.0;
+        long ops = 0;
+        try {
+            for( int i = 0; i < warmups; ++i )
+                iteration( b );
+            for( int i = 0; i < iterations; ++i ) {
+                long allocatedBefore = allocated();
+                long[] done = iteration( b );
+                bytes += allocated() - allocatedBefore;
+                ops += done[0];
+                scores[i] = b.throughput ? done[0] * 1e9 / done[1] : (double) done[1] / done[0];
+            }
+        } finally {
+            System.setOut( console );
+        }
+        double mean = 0.0;
+        for( double s : scores )
+            mean += s;
+        mean /= iterations;
+        double var = 0.0;
+        for( double s : scores )
+            var += (s - mean) * (s - mean);
+        double error = iterations > 1
+            ? StudentT.halfWidth( .999, iterations, Math.sqrt( var / (iterations - 1) ) ) : Double.NaN;
+        System.out.printf( "%-22s %5s %4d %16.3f +- %12.3f  %-9s %10.1f\n", b.name,
+            b.throughput ? "thrpt" : "avgt", iterations, mean, error, b.unit, bytes / ops );
+    }
+
+    // Run operations of 'b' for at least ITERATION_NS
+    // Return the ops done and the nanoseconds they took
+    private static long[] iteration( Bench b ) throws IOException {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            ops += b.run();
+            elapsed = System.nanoTime() - start;
+        } while( elapsed < ITERATION_NS );
+        return new long[] { ops, elapsed };
+    }
+
+    private static TrainStats simulate( String engine, String[] args ) {
+        String[] all = new String[args.length + 2];
+        all[0] = "-e";
+        all[1] = engine;
+        System.arraycopy( args, 0, all, 2, args.length );
+        return TrainSim.simulate( all ).total();
+    }
+
+    // Count the trace events of one simulation of 'args' from its binary trace
+    private static long countEvents( String[] args ) throws IOException {
+        File f = File.createTempFile( "trace", ".bin" );
+        f.deleteOnExit();
+        String[] all = args.clone();
+        all[1] = "bin";
+        String[] withFile = new String[all.length + 1];
+        System.arraycopy( all, 0, withFile, 0, 2 );
+        withFile[2] = f.getPath();
+        System.arraycopy( all, 2, withFile, 3, all.length - 2 );
+        PrintStream console = System.out;
+        System.setOut( nowhere );
+        try {
+            TrainSim.simulate( withFile );
+        } finally {
+            System.setOut( console );
+        }
+        final long[] n = new long[1];
+        TraceDecoder.decode( f.getPath(), new TraceSink() {
+            public void arrival( double t, int train, double u, int crew, double left, int q ) { n[0]++; }
+            public void enterDock( double t, int train, double u, int crew, double left ) { n[0]++; }
+            public void departure( double t, int train, int q ) { n[0]++; }
+            public void hogoutInQ( double t, int train, int crew ) { n[0]++; }
+            public void hogoutInDock( double t, int train, int crew ) { n[0]++; }
+            public void crewArrival( double t, int train, int crew ) { n[0]++; }
+            public void stuckInQ( double t, int train, int crew ) { n[0]++; }
+            public void ended( double t ) {}
+            public void flush() {}
+            public void close() {}
+        } );
+        return n[0];
+    }
+
+    // Read 'trains' trains out of 'u', closing it if it reads files
+    private static long drain( TrainSimUtil u, int trains ) throws IOException {
+        int n = 0;
+        while( n < trains && u.nextTrain() ) {
+            sink += u.arrival() + u.unload() + u.crewHours();
+            n++;
+        }
+        u.finalize();
+        return n;
+    }
+
+    // Write a temporary text schedule of 'trains' generated trains
+    private static String writeSchedule( TrainSimUtil u, int trains ) throws IOException {
+        File f = File.createTempFile( "schedule", ".txt" );
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter( new BufferedWriter( new FileWriter( f ), 1 << 16 ) );
+        double clock = 0.0;
+        for( int i = 0; i < trains; ++i ) {
+            u.nextTrain();
+            clock += u.arrival();
+            pw.println( clock + " " + u.unload() + " " + u.crewHours() );
+        }
+        pw.close();
+        return f.getPath();
+    }
+
+    /* ALLOCATION COUNTING */
+    // Add up the bytes every garbage collection frees
+    private static void watchCollections() {
+        NotificationListener listener = new NotificationListener() {
+            public void handleNotification( Notification n, Object handback ) {
+                if( !n.getType().equals( GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION ) )
+                    return;
+                GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from( (CompositeData) n.getUserData() );
+                Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+                Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+                long bytes = 0;
+                for( Map.Entry<String, MemoryUsage> e : before.entrySet() )
+                    bytes += e.getValue().getUsed() - after.get( e.getKey() ).getUsed();
+                freed.addAndGet( bytes );
+                collections.incrementAndGet();
+            }
+        };
+        for( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+            ((NotificationEmitter) gc).addNotificationListener( listener, null, null );
+    }
+
+    // Bytes allocated so far: all that was freed plus what is in use
+    // The GC notifications come late, so wait until every one has arrived
+    // and no collection ran while reading
+    private static long allocated() {
+        long deadline = System.nanoTime() + ITERATION_NS;
+        while( true ) {
+            long done = collectionCount();
+            long bytes = freed.get()
+                + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            if( (collections.get() >= done && collectionCount() == done)
+                    || System.nanoTime() > deadline )
+                return bytes;
+            try {
+                Thread.sleep( 1 );
+            } catch( InterruptedException e ) {
+                return bytes;
+            }
+        }
+    }
+
+    private static long collectionCount() {
+        long n = 0;
+        for( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+            n += gc.getCollectionCount();
+        return n;
+    }
+    /* END */
+}
@@ -0,0 +1,287 @@
+package com.trainsim;
+
+import java.io.*;
+
+// Used to get all the different times needed for the sim. It is saved with
+// a checkpoint of the sim: the files are saved as their names and how far
+// they were read, and opened again where they were left. Streamed files are
+// read ahead on a thread of their own by a ValueFeed.
+class TrainSimUtil implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int BATCH_SIZE = 64; // Trains generated or read at a time
+    /* DEFAULT RANGES of the generated values */
+    static final double UNLOAD_A = 3.5;
+    static final double UNLOAD_B = 4.5;
+    static final double CREW_A = 6.0;
+    static final double CREW_B = 11.0;
+    static final double REPLACE_A = 2.5;
+    static final double REPLACE_B = 3.5;
+    /* END */
+    boolean generateValues; // Flag for generating or reading values
+    double arrRate = 10.0; // Train arrival rate
+    double unTimeA = UNLOAD_A; // Unload rate start range
+    double unTimeB = UNLOAD_B; // Unload rate end range
+    double crewWorkTimeA = CREW_A; // Crews time left start range;
+    double crewWorkTimeB = CREW_B; // Crews time left end range;
+    double replaceTimeA = REPLACE_A; // Replacement crews arrival start range;
+    double replaceTimeB = REPLACE_B; // Replacement crews arrival end range;
+    private String scheduleFile; // Train schedules file, null if generated
+    private String travelFile; // Crew arrival time schedules file
+    private boolean stream = false; // Read the files ahead through ValueFeeds
+    private double maxGap = 0.0; // Longest gap between streamed arrivals, 0 for any
+    private transient PrintStream warnings = null; // Where streamed files report
+    transient ValueReader rdSchedule = null; // Used to read train schedules file
+    transient ValueReader rdTravel = null; // Used to read crew arrival time schedules
+    transient ColumnarFile colSchedule = null; // rdSchedule if it is a columnar file
+    RandomStream randArr; // Random number generator for train arrival times
+    RandomStream randUn; // Random number generator for train unload times
+    RandomStream randRemain;// Random number generator for remaining crew times
+    RandomStream randReplace; // Random number generator for replacement crew arrival times
+    private final double[] replace = new double[BATCH_SIZE]; // Upcoming crew travel times
+    private int replaceCursor = BATCH_SIZE; // Index of the next one in 'replace'
+    private final TrainValues next = new TrainValues( BATCH_SIZE ); // Upcoming trains
+    private int cursor = 0; // Index of the current train in 'next'
+    private int controlDraws = 0; // Trains drawn for the controls, see controls()
+    private int drawn = 0; // Of those drawn so far
+    private double[] controlSums = null; // Their inter-arrival, unload and crew hours, null if not kept
+    /*
+    Constructor for randomly generated values
+    Parameter(1): Train arrival rate
+    Parameter(2-7): Unload, crew hours and replacement ranges
+    Parameter(8): Master seed, the values are those of its first replication
+    */
+    TrainSimUtil( double arrival, double unloadA, double unloadB,
+        double crewA, double crewB, double replaceA, double replaceB, long seed ) {
+        this( arrival, unloadA, unloadB, crewA, crewB, replaceA, replaceB,
+            new RandomStreams( seed ).replication( 0 ) );
+    }
+
+    /*
+    Constructor for randomly generated values
+    Parameter(1): Train arrival rate
+    Parameter(2-7): Unload, crew hours and replacement ranges
+    Parameter(8): The replication's streams, from RandomStreams.replication()
+    */
+    TrainSimUtil( double arrival, double unloadA, double unloadB,
+        double crewA, double crewB, double replaceA, double replaceB, RandomStream[] streams ) {
+        // Assign values
+        generateValues = true;
+        randArr = streams[RandomStreams.ARRIVAL];
+        randUn = streams[RandomStreams.UNLOAD];
+        randRemain = streams[RandomStreams.CREW];
+        randReplace = streams[RandomStreams.REPLACE];
+        arrRate = arrival;
+        unTimeA = unloadA;
+        unTimeB = unloadB;
+        crewWorkTimeA = crewA;
+        crewWorkTimeB = crewB;
+        replaceTimeA = replaceA;
+        replaceTimeB = replaceB;
+    }
+
+    /*
+    Constructor for pre-generated values
+    Parameter(1): File location to train arrival schedule, unloading time, and
+    remaining crew hours
+    Parameter(2): File location to train
+    Either file may be text or converted by ScheduleConverter
+    */
+    TrainSimUtil( String schedule, String travelTimes ) throws FileNotFoundException, IOException {
+        generateValues = false;
+        scheduleFile = schedule;
+        travelFile = travelTimes;
+        openFiles();
+    }
+
+    /*
+    Constructor for pre-generated values streamed from large files
+    Parameter(1-2): Like the constructor above, either may be gzip compressed
+    Parameter(3): Longest gap between two arrivals allowed, 0 to allow any
+    Parameter(4): Where gaps and the closing summary go, null to say nothing
+    */
+    TrainSimUtil( String schedule, String travelTimes, double maxGap, PrintStream warnings )
+            throws IOException {
+        generateValues = false;
+        scheduleFile = schedule;
+        travelFile = travelTimes;
+        stream = true;
+        this.maxGap = maxGap;
+        this.warnings = warnings;
+        openFiles();
+    }
+
+    // Draw from 'streams', from RandomStreams.replication(), from here on.
+    // The values drawn ahead of the current train and crew are dropped, so
+    // copies of a split sim each reseeded differ from the next value on
+    void reseed( RandomStream[] streams ) {
+        if( !generateValues )
+            throw new IllegalStateException( "reseed: the values are read from files" );
+        randArr = streams[RandomStreams.ARRIVAL];
+        randUn = streams[RandomStreams.UNLOAD];
+        randRemain = streams[RandomStreams.CREW];
+        randReplace = streams[RandomStreams.REPLACE];
+        next.count = Math.min( next.count, cursor + 1 );
+        replaceCursor = replace.length;
+        // The values dropped were counted, so the controls no longer hold
+        controlSums = null;
+    }
+
+    // Keep the means of the first 'k' inter-arrival, unload and crew hours
+    // drawn, the controls of VarianceReduction. 'k' is set from the run's
+    // length before it starts, so unlike the means of the trains that
+    // arrived, their expected values are the means of the ranges however
+    // the run ends
+    void controls( int k ) {
+        if( !generateValues )
+            throw new IllegalStateException( "controls: the values are read from files" );
+        controlDraws = Math.max( k, 1 );
+        drawn = 0;
+        controlSums = new double[VarianceReduction.CONTROLS];
+    }
+
+    // The means kept by controls(), drawing the rest of the 'k' trains if
+    // the run ended before it drew them. Null if they were not kept
+    double[] controls() {
+        if( controlSums == null )
+            return null;
+        TrainValues rest = new TrainValues( BATCH_SIZE );
+        while( drawn < controlDraws )
+            draw( rest );
+        double[] means = new double[controlSums.length];
+        for( int c = 0; c < means.length; ++c )
+            means[c] = controlSums[c] / controlDraws;
+        return means;
+    }
+
+    // Open files for reading pre-made values
+    private void openFiles() throws IOException {
+        rdSchedule = open( scheduleFile );
+        rdTravel = open( travelFile );
+        if( stream ) {
+            rdSchedule = new ValueFeed( rdSchedule, scheduleFile, 3, maxGap, warnings );
+            rdTravel = new ValueFeed( rdTravel, travelFile, 1, 0.0, null );
+        }
+        else if( rdSchedule instanceof ColumnarFile ) {
+            colSchedule = (ColumnarFile) rdSchedule;
+            if( colSchedule.columns() != 3 )
+                throw new IOException( scheduleFile + " does not have 3 columns" );
+        }
+    }
+
+    private void writeObject( ObjectOutputStream out ) throws IOException {
+        out.defaultWriteObject();
+        if( !generateValues ) {
+            out.writeLong( rdSchedule.position() );
+            out.writeLong( rdTravel.position() );
+        }
+    }
+
+    private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if( !generateValues ) {
+            openFiles();
+            rdSchedule.seek( in.readLong() );
+            rdTravel.seek( in.readLong() );
+        }
+    }
+
+    // Open 'file' with the fastest reader that can read it
+    private static ValueReader open( String file ) throws IOException {
+        // Pipes and other special files can't be mapped or looked at twice,
+        // and gzip files are inflated as they are read
+        if( !new File( file ).isFile() || NumberReader.isGzip( file ) )
+            return new NumberReader( file );
+        if( ColumnarFile.isColumnar( file ) )
+            return new ColumnarFile( file );
+        return new MappedNumberReader( file );
+    }
+    // 'Destructor' used to close open files
+    public void finalize() throws IOException {
+        if( rdSchedule != null )
+            rdSchedule.close();
+        if( rdTravel != null )
+            rdTravel.close();
+    }
+
+    // Move to the next train's arrival, unloading, and crews remaining hours
+    // Return false if the file is empty
+    public boolean nextTrain() throws IOException {
+        if( ++cursor >= next.count ) {
+            cursor = 0;
+            if( fill( next ) == 0 )
+                return false;
+        }
+        return true;
+    }
+    public double arrival() {
+        return next.arrival[cursor];
+    }
+    public double unload() {
+        return next.unload[cursor];
+    }
+    public double crewHours() {
+        return next.crewHours[cursor];
+    }
+
+    // Fill 'v' with the next trains' arrival, unloading, and crews remaining hours
+    // Randomly generated values or pre-made values depend on flag
+    // Return the number of trains filled in, 0 if the file is empty
+    public int fill( TrainValues v ) throws IOException {
+        int n = 0;
+        if( colSchedule != null ) {
+            n = colSchedule.read( v.arrival, v.unload, v.crewHours );
+        } else if( !generateValues ) {
+            for( ; n < v.capacity(); ++n ) {
+                double arrival = rdSchedule.next();
+                double unload = rdSchedule.next();
+                double crew = rdSchedule.next();
+                if( Double.isNaN( crew ) ) break;
+                v.arrival[n] = arrival;
+                v.unload[n] = unload;
+                v.crewHours[n] = crew;
+            }
+        } else {
+            n = draw( v );
+        }
+        v.count = n;
+        return n;
+    }
+
+    // Fill 'v' with generated trains, adding those the controls are kept
+    // of to their sums. Return the number of trains
+    private int draw( TrainValues v ) {
+        // Each field has its own stream, so drawing a batch of each in
+        // turn gives the same values as drawing them one train at a time
+        int n = v.capacity();
+        randArr.exponential( v.arrival, n, arrRate );
+        randUn.uniform( v.unload, n, unTimeA, unTimeB );
+        randRemain.uniform( v.crewHours, n, crewWorkTimeA, crewWorkTimeB );
+        if( controlSums != null && drawn < controlDraws ) {
+            int k = Math.min( n, controlDraws - drawn );
+            for( int i = 0; i < k; ++i ) {
+                controlSums[0] += v.arrival[i];
+                controlSums[1] += v.unload[i];
+                controlSums[2] += v.crewHours[i];
+            }
+            drawn += k;
+        }
+        return n;
+    }
+
+    // Return the new crews arrival times
+    // Randomly generated values or pre-made values depend on flag
+    // Return a value < 0 if the file is empty
+    public double getNextCrewArrival() throws IOException {
+        if( !generateValues ) {
+            double value = rdTravel.next();
+            return Double.isNaN( value ) ? -1.0 : value;
+        } else {
+            // Drawn a batch at a time from their own stream, like the trains
+            if( replaceCursor == replace.length ) {
+                randReplace.uniform( replace, replace.length, replaceTimeA, replaceTimeB );
+                replaceCursor = 0;
+            }
+            return replace[replaceCursor++];
+        }
+    }
+}
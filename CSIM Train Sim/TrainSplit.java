@@ -0,0 +1,332 @@
+package com.trainsim;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Estimates how likely a run of generated trains is to see a long queue,
+// or a train that hogs out many times, when that is too rare for plain
+// replications to see, by fixed-effort multilevel splitting on the event
+// calendar engine. A run's importance is the longest its queue has been,
+// or the most hogouts of any of its trains, and the levels are values of
+// it on the way up to the threshold. The first stage starts -n runs from
+// the start of the sim, and every run that reaches the first level is
+// frozen at the event that took it there. Each stage after starts its -n
+// runs from the frozen states of the stage before, spread over them as
+// evenly as it can, and every copy draws from streams of its own from
+// there on. The fraction of the runs of each stage that reached its level,
+// multiplied up to a level, is an unbiased estimate of the probability of
+// reaching that level in a run. The whole splitting is repeated -reps
+// times on independent streams and the interval of each level comes from
+// the spread of those estimates. -mc runs that many plain replications of
+// the same scenario, to compare with.
+// Usage: TrainSplit [-t <threads>] [-seed <seed>] [-n <runs per level>] [-reps <n>]
+//        [-levels <l1,l2,...>] [-docks <n>] [-policy first|shortest|crew] [-crews <n>]
+//        [-mc <replications>] queue|hogouts <threshold> <inter-arrival> <sim time>
+public class TrainSplit {
+    private static final double CONFIDENCE = .99; // Level of every interval
+    private static final String USAGE = "Usage: TrainSplit [-t <threads>] [-seed <seed>] "
+        + "[-n <runs per level>] [-reps <n>] [-levels <l1,l2,...>] [-docks <n>] "
+        + "[-policy first|shortest|crew] [-crews <n>] [-mc <replications>] "
+        + "queue|hogouts <threshold> <inter-arrival> <sim time>";
+    private final boolean hogouts; // Split on a train's hogouts, else on the queue
+    private final int[] levels; // Importance to reach at each stage, rising
+    private final int n; // Runs of each stage
+    private final double arrival; // Mean inter-arrival time
+    private final double simTime; // Max simulation time
+    private final int docks; // Unloading docks in the yard
+    private final Yard.Policy policy; // How trains are given docks
+    private final int crews; // Replacement crews in the pool, 0 for no limit
+    private final RandomStreams streams; // Of every run, from the master seed
+    private final RandomStream pick; // Picks the states the spare runs start from
+    private final ExecutorService pool;
+    private double hours = 0.0; // Simulated hours of every run
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.nanoTime();
+        int n = 1000;
+        int reps = 10;
+        int[] below = new int[0]; // Levels asked for below the threshold
+        boolean levelsGiven = false;
+        int docks = 1;
+        Yard.Policy policy = Yard.Policy.FIRST;
+        int crews = 0;
+        int mc = 0;
+        int threshold;
+        double arrival;
+        double simTime;
+        List<String> rest = new ArrayList<String>();
+        try {
+            for( int i = 0; i < args.length; ++i ) {
+                if( args[i].equals( "-t" ) && i + 1 < args.length )
+                    threads = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-seed" ) && i + 1 < args.length )
+                    seed = Long.parseLong( args[++i] );
+                else if( args[i].equals( "-n" ) && i + 1 < args.length )
+                    n = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-reps" ) && i + 1 < args.length )
+                    reps = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-levels" ) && i + 1 < args.length ) {
+                    String[] values = args[++i].split( "," );
+                    below = new int[values.length];
+                    for( int l = 0; l < values.length; ++l )
+                        below[l] = Integer.parseInt( values[l] );
+                    levelsGiven = true;
+                }
+                else if( args[i].equals( "-docks" ) && i + 1 < args.length )
+                    docks = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-policy" ) && i + 1 < args.length )
+                    policy = Yard.Policy.valueOf( args[++i].toUpperCase() );
+                else if( args[i].equals( "-crews" ) && i + 1 < args.length )
+                    crews = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-mc" ) && i + 1 < args.length )
+                    mc = Integer.parseInt( args[++i] );
+                else
+                    rest.add( args[i] );
+            }
+            if( rest.size() != 4 )
+                throw new IllegalArgumentException( "Expected 4 arguments, got " + rest.size() );
+            if( !rest.get( 0 ).equals( "queue" ) && !rest.get( 0 ).equals( "hogouts" ) )
+                throw new IllegalArgumentException( "Split on queue or hogouts, not " + rest.get( 0 ) );
+            if( n < 1 || reps < 2 )
+                throw new IllegalArgumentException( "Needs -n of 1 or more and -reps of 2 or more" );
+            threshold = Integer.parseInt( rest.get( 1 ) );
+            arrival = Double.parseDouble( rest.get( 2 ) );
+            simTime = Double.parseDouble( rest.get( 3 ) );
+        } catch( IllegalArgumentException e ) {
+            System.out.println( e.getMessage() );
+            System.out.println( USAGE );
+            return;
+        }
+        boolean hogouts = rest.get( 0 ).equals( "hogouts" );
+        int[] levels = levels( below, levelsGiven, threshold );
+        if( levels == null ) {
+            System.out.println( "The levels have to rise from 1 or more to below the threshold" );
+            System.out.println( USAGE );
+            return;
+        }
+        // Every run draws from a stream of its own, numbered by an int
+        if( (long) reps * levels.length * n + mc > Integer.MAX_VALUE ) {
+            System.out.println( "Too many runs: -reps, -n, -mc and the levels come to more than "
+                + Integer.MAX_VALUE );
+            System.out.println( USAGE );
+            return;
+        }
+        TrainSplit split = new TrainSplit( hogouts, levels, n, arrival, simTime, docks, policy,
+            crews, seed, threads );
+        System.out.printf( "Master seed: %d\n", seed );
+        try {
+            split.estimate( reps, System.out );
+            if( mc > 0 )
+                split.plain( mc, reps, System.out );
+        } finally {
+            split.pool.shutdownNow();
+        }
+    }
+
+    // The levels below the threshold and the threshold, every value from 1
+    // up to it if none were asked for. Null if they do not rise
+    private static int[] levels( int[] below, boolean given, int threshold ) {
+        if( !given ) {
+            below = new int[Math.max( threshold - 1, 0 )];
+            for( int l = 0; l < below.length; ++l )
+                below[l] = l + 1;
+        }
+        int[] levels = java.util.Arrays.copyOf( below, below.length + 1 );
+        levels[below.length] = threshold;
+        for( int l = 0; l < levels.length; ++l )
+            if( levels[l] < 1 || (l > 0 && levels[l] <= levels[l - 1]) )
+                return null;
+        return levels;
+    }
+
+    /*
+    Parameter(1): True to split on the hogouts of a train, false on the queue
+    Parameter(2): Importance to reach at each stage, rising to the threshold
+    Parameter(3): Runs of each stage
+    Parameter(4): Mean inter-arrival time
+    Parameter(5): Max simulation time
+    Parameter(6): Number of unloading docks
+    Parameter(7): How trains are given docks
+    Parameter(8): Number of replacement crews, 0 for no limit
+    Parameter(9): Master seed of every run
+    Parameter(10): Worker threads running the runs of a stage
+    */
+    TrainSplit( boolean hogouts, int[] levels, int n, double arrival, double simTime,
+            int docks, Yard.Policy policy, int crews, long seed, int threads ) {
+        this.hogouts = hogouts;
+        this.levels = levels.clone();
+        this.n = n;
+        this.arrival = arrival;
+        this.simTime = simTime;
+        this.docks = docks;
+        this.policy = policy;
+        this.crews = crews;
+        streams = new RandomStreams( seed );
+        // A stream of its own, apart from the runs' streams
+        pick = new RandomStream( RandomStream.mix( seed ) );
+        pool = Executors.newFixedThreadPool( threads );
+    }
+
+    // Split 'reps' times and print the probability of reaching each level
+    // with its interval, and what plain replications would take for the
+    // same interval at the threshold
+    void estimate( int reps, PrintStream out ) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Accumulator[] p = new Accumulator[levels.length];
+        for( int l = 0; l < levels.length; ++l )
+            p[l] = new Accumulator();
+        for( int r = 0; r < reps; ++r ) {
+            double[] reached = split( r );
+            for( int l = 0; l < levels.length; ++l )
+                p[l].record( reached[l] );
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf( "Splitting on the %s: %d splittings of %d runs for each of %d levels\n",
+            hogouts ? "hogouts of a train" : "queue length", reps, n, levels.length );
+        out.printf( "%-16s %12s %28s %10s\n", "Level", "Probability",
+            String.format( "%.0f%% interval", CONFIDENCE * 100 ), "Rel. error" );
+        for( int l = 0; l < levels.length; ++l ) {
+            double mean = p[l].mean();
+            double half = StudentT.halfWidth( CONFIDENCE, p[l].count(), p[l].stddev() );
+            out.printf( "%-16s %12.4g [%12.4g, %12.4g] %9.1f%%\n", label( levels[l] ), mean,
+                Math.max( mean - half, 0.0 ), mean + half, mean > 0 ? half / mean * 100 : 0.0 );
+        }
+        out.printf( "Splitting simulated %.0f hours in %.1fs\n", hours, seconds );
+        // Plain replications hit the threshold with probability p, so m of
+        // them estimate it with variance p(1-p)/m
+        Accumulator top = p[levels.length - 1];
+        double variance = top.variance() / top.count();
+        if( top.mean() == 0 )
+            out.printf( "No run reached %s, lower it or add runs with -n\n",
+                label( levels[levels.length - 1] ) );
+        else if( variance > 0 ) {
+            double m = top.mean() * (1 - top.mean()) / variance;
+            out.printf( "Plain replications for the same interval: about %.3g, "
+                + "%.3g hours or %.0f times the splitting's\n", m, m * simTime,
+                m * simTime / hours );
+        }
+    }
+
+    // Run 'm' plain replications until they reach the threshold and print
+    // the fraction of them that did, with its interval
+    void plain( int m, int reps, PrintStream out ) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        double before = hours;
+        // Past the streams of every splitting
+        long base = (long) reps * levels.length * n;
+        List<Future<Reached>> runs = new ArrayList<Future<Reached>>( m );
+        for( int i = 0; i < m; ++i )
+            runs.add( submit( fresh(), levels[levels.length - 1], Math.toIntExact( base + i ) ) );
+        Accumulator hit = new Accumulator();
+        for( Reached r : results( runs ) )
+            hit.record( r.state != null ? 1.0 : 0.0 );
+        double half = StudentT.halfWidth( CONFIDENCE, hit.count(), hit.stddev() );
+        out.printf( "Plain replications: %d, %s %.4g +- %.4g, %.0f hours in %.1fs\n", m,
+            label( levels[levels.length - 1] ), hit.mean(), half, hours - before,
+            (System.nanoTime() - start) / 1e9 );
+    }
+
+    // Splitting 'r': the estimate of the probability of reaching each level
+    private double[] split( int r ) throws IOException, InterruptedException {
+        double[] reached = new double[levels.length];
+        List<byte[]> starts = new ArrayList<byte[]>();
+        starts.add( fresh() );
+        double fraction = 1.0;
+        for( int l = 0; l < levels.length && !starts.isEmpty(); ++l ) {
+            int[] from = spread( starts.size() );
+            List<Future<Reached>> runs = new ArrayList<Future<Reached>>( n );
+            for( int j = 0; j < n; ++j )
+                runs.add( submit( starts.get( from[j] ), levels[l],
+                    Math.toIntExact( ((long) r * levels.length + l) * n + j ) ) );
+            List<byte[]> next = new ArrayList<byte[]>();
+            for( Reached run : results( runs ) )
+                if( run.state != null )
+                    next.add( run.state );
+            fraction *= (double) next.size() / n;
+            reached[l] = fraction;
+            starts = next;
+        }
+        return reached;
+    }
+
+    // Which of 'm' states each run of a stage starts from: every state
+    // starts n / m of them, and the runs left over start from states picked
+    // at random, no state twice
+    private int[] spread( int m ) {
+        int[] order = new int[m];
+        for( int i = 0; i < m; ++i )
+            order[i] = i;
+        int extra = n % m;
+        // The first 'extra' places of a Fisher-Yates shuffle
+        for( int i = 0; i < extra; ++i ) {
+            int j = i + Math.min( m - 1 - i, (int) (pick.nextDouble() * (m - i)) );
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        int[] from = new int[n];
+        int j = 0;
+        for( int i = 0; i < m; ++i )
+            for( int c = n / m + (i < extra ? 1 : 0); c > 0; --c )
+                from[j++] = order[i];
+        return from;
+    }
+
+    // A sim at its start, frozen
+    private byte[] fresh() throws IOException {
+        // Its streams are replaced by those of each run started from it
+        TrainSimUtil util = new TrainSimUtil( arrival, TrainSimUtil.UNLOAD_A,
+            TrainSimUtil.UNLOAD_B, TrainSimUtil.CREW_A, TrainSimUtil.CREW_B,
+            TrainSimUtil.REPLACE_A, TrainSimUtil.REPLACE_B, streams.replication( 0 ) );
+        return new EventSim( null, TraceSink.NONE, util, simTime, false, docks, policy, crews,
+            null ).freeze();
+    }
+
+    // What a run did: its state frozen where it reached its level, null if
+    // it ended first, and the hours it simulated
+    private static final class Reached {
+        final byte[] state;
+        final double hours;
+        Reached( byte[] state, double hours ) {
+            this.state = state;
+            this.hours = hours;
+        }
+    }
+
+    // Run a copy of 'start' on the streams of 'index' until it reaches 'level'
+    private Future<Reached> submit( final byte[] start, final int level, final int index ) {
+        return pool.submit( new Callable<Reached>() {
+            public Reached call() throws IOException {
+                EventSim sim = EventSim.thaw( start, null, TraceSink.NONE );
+                double from = sim.clock();
+                sim.reseed( streams.replication( index ) );
+                boolean reached = hogouts ? sim.runUntil( Integer.MAX_VALUE, level )
+                    : sim.runUntil( level, Integer.MAX_VALUE );
+                return new Reached( reached ? sim.freeze() : null, sim.clock() - from );
+            }
+        } );
+    }
+
+    // Wait for 'runs' in order and add up their hours
+    private List<Reached> results( List<Future<Reached>> runs )
+            throws IOException, InterruptedException {
+        List<Reached> done = new ArrayList<Reached>( runs.size() );
+        try {
+            for( Future<Reached> f : runs ) {
+                Reached r = f.get();
+                hours += r.hours;
+                done.add( r );
+            }
+        } catch( ExecutionException e ) {
+            throw new IOException( "Splitting failed: " + e.getCause().getMessage(), e.getCause() );
+        }
+        return done;
+    }
+
+    private String label( int level ) {
+        return (hogouts ? "hogouts >= " : "queue >= ") + level;
+    }
+}
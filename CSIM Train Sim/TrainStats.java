@@ -0,0 +1,193 @@
+package com.trainsim;
+
+import java.io.PrintStream;
+
+// Statistics of one simulation, or of several merged together. Everything
+// is kept in accumulators of constant size, so memory does not grow with
+// the number of trains, and merging gives the same totals as recording
+// every train into one.
+class TrainStats implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    static final double ACCURACY = 0.01; // Relative error of the quantiles
+    final Accumulator timeIn = new Accumulator(); // Per-train time in system
+    final Accumulator idle = new Accumulator(); // Dock idle times
+    final Accumulator busy = new Accumulator(); // Dock busy times
+    final Accumulator hogged = new Accumulator(); // Crew hogged in dock times
+    final Accumulator timeInQ = new Accumulator(); // Per-train time in queue
+    final QuantileSketch timeInQuantiles = new QuantileSketch( ACCURACY );
+    final Accumulator crewWait = new Accumulator(); // Waits for a pool crew
+    private final Accumulator[] occupied; // Time each train held each dock
+    private final Accumulator[] dockIdle; // Dock idle times of each dock
+    private final Accumulator[] dockHogged; // Crew hogged times of each dock
+    private int maxQ = 0; // The max train queue size
+    private long[] hogouts = new long[8]; // Trains with exactly i hogouts
+    private double[] controls = null; // Controls of the run, see controls()
+    final BatchMeans steady; // Steady-state time in system, null if not asked for
+
+    /*
+    Parameter(1): Number of docks in the yard
+    */
+    TrainStats( int docks ) {
+        this( docks, null );
+    }
+
+    /*
+    Parameter(1): Number of docks in the yard
+    Parameter(2): Steady-state estimate fed every time in system, or null
+    */
+    TrainStats( int docks, BatchMeans steady ) {
+        this.steady = steady;
+        occupied = new Accumulator[docks];
+        dockIdle = new Accumulator[docks];
+        dockHogged = new Accumulator[docks];
+        for( int d = 0; d < docks; ++d ) {
+            occupied[d] = new Accumulator();
+            dockIdle[d] = new Accumulator();
+            dockHogged[d] = new Accumulator();
+        }
+    }
+
+    // A train arrived, it keeps the dock busy for 'unload' hours
+    void arrival( double unload ) {
+        busy.record( unload );
+    }
+
+    // The run's controls, from TrainSimUtil.controls()
+    void controls( double[] controls ) {
+        this.controls = controls;
+    }
+
+    // Means of the run's first inter-arrival, unload and crew hours drawn,
+    // the controls of VarianceReduction. Null if it read its values
+    double[] controls() {
+        return controls;
+    }
+
+    // The train queue was 'q' long
+    void queue( int q ) {
+        if( q > maxQ )
+            maxQ = q;
+    }
+
+    // A train departed from 'dock', which it held for 'atDock' hours
+    void departure( double inSystem, double inQ, double dockIdle, double dockHog,
+            int hogoutCount, int dock, double atDock ) {
+        timeIn.record( inSystem );
+        if( steady != null )
+            steady.record( inSystem );
+        timeInQuantiles.record( inSystem );
+        timeInQ.record( inQ );
+        idle.record( dockIdle );
+        hogged.record( dockHog );
+        occupied[dock].record( atDock );
+        this.dockIdle[dock].record( dockIdle );
+        dockHogged[dock].record( dockHog );
+        if( hogoutCount >= hogouts.length )
+            hogouts = java.util.Arrays.copyOf( hogouts, 2 * hogoutCount );
+        hogouts[hogoutCount]++;
+    }
+
+    // The max train queue size
+    int maxQ() {
+        return maxQ;
+    }
+
+    // True once the steady-state estimate is precise enough to stop the run
+    boolean isSteady() {
+        return steady != null && steady.steady();
+    }
+
+    // The run's estimate of the time in system: its steady-state mean when
+    // asked for, else the mean of every train. A run too short to batch
+    // falls back to the mean of every train too
+    double estimate() {
+        double m = steady != null ? steady.mean() : Double.NaN;
+        return Double.isNaN( m ) ? timeIn.mean() : m;
+    }
+
+    // Add everything recorded into 'o' to this one, but for the steady-state
+    // estimate and the controls, which belong to one run
+    void merge( TrainStats o ) {
+        timeIn.merge( o.timeIn );
+        idle.merge( o.idle );
+        busy.merge( o.busy );
+        hogged.merge( o.hogged );
+        timeInQ.merge( o.timeInQ );
+        timeInQuantiles.merge( o.timeInQuantiles );
+        crewWait.merge( o.crewWait );
+        if( o.occupied.length != occupied.length )
+            throw new IllegalArgumentException( "merge: yards differ in docks" );
+        for( int d = 0; d < occupied.length; ++d ) {
+            occupied[d].merge( o.occupied[d] );
+            dockIdle[d].merge( o.dockIdle[d] );
+            dockHogged[d].merge( o.dockHogged[d] );
+        }
+        queue( o.maxQ );
+        if( o.hogouts.length > hogouts.length )
+            hogouts = java.util.Arrays.copyOf( hogouts, o.hogouts.length );
+        for( int i = 0; i < o.hogouts.length; ++i )
+            hogouts[i] += o.hogouts[i];
+    }
+
+    // Print the statistics of a simulation that ran for 'clock' hours
+    // The dock percentages are of the time of every dock together
+    void print( PrintStream out, double clock ) {
+        long completions = timeIn.count();
+        double dockTime = clock * occupied.length;
+        out.println("");
+        out.println( "Statistics" );
+        out.println( "----------" );
+        out.printf( "Total number of trains served: %d\n", completions ); 
+        out.printf( "Average time-in-system per train: %.2fh\n", timeIn.mean() );
+        out.printf( "Maximum time-in-system per train: %.2fh\n", timeIn.max() );
+        printQuantiles( out );
+        out.printf( "Dock idle percentage: %.2f%%\n", idle.sum() / dockTime * 100);
+        out.printf( "Dock busy percentage: %.2f%%\n", busy.sum() / dockTime * 100);
+        out.printf( "Dock hogged-out percentage: %.2f%%\n", hogged.sum() / dockTime * 100);
+        out.printf( "Time average of trains in queue: %.3f\n", timeInQ.sum() / completions );
+        out.printf( "Maximum number of trains in queue: %d\n", maxQ );
+        if( crewWait.count() > 0 )
+            out.printf( "Average wait for a replacement crew: %.2fh\n", crewWait.mean() );
+        if( steady != null )
+            steady.print( out );
+        if( occupied.length > 1 ) {
+            for( int d = 0; d < occupied.length; ++d )
+                out.printf( "Dock %d: %d trains, occupied %.2f%%, idle %.2f%%, "
+                    + "hogged-out %.2f%%\n", d, occupied[d].count(),
+                    occupied[d].sum() / clock * 100, dockIdle[d].sum() / clock * 100,
+                    dockHogged[d].sum() / clock * 100 );
+        }
+        out.println( "Histogram of hogout count per train:" );
+        printHisto( out );
+    }
+
+    // Print the statistics merged from 'nSims' simulations
+    void printMerged( PrintStream out, int nSims ) {
+        out.println("");
+        out.printf( "Statistics of all %d simulations\n", nSims );
+        out.println( "--------------------------------" );
+        out.printf( "Total number of trains served: %d\n", timeIn.count() ); 
+        out.printf( "Average time-in-system per train: %.2fh (std dev %.2fh)\n",
+            timeIn.mean(), timeIn.stddev() );
+        out.printf( "Maximum time-in-system per train: %.2fh\n", timeIn.max() );
+        printQuantiles( out );
+        out.printf( "Maximum number of trains in queue: %d\n", maxQ );
+    }
+
+    private void printQuantiles( PrintStream out ) {
+        out.printf( "Time-in-system p50/p95/p99: %.2fh/%.2fh/%.2fh\n",
+            timeInQuantiles.quantile( .50 ), timeInQuantiles.quantile( .95 ),
+            timeInQuantiles.quantile( .99 ) );
+    }
+
+    // Number of trains with at least i hogouts, for each i
+    private void printHisto( PrintStream out ) {
+        long atLeast = 0;
+        for( int i = hogouts.length - 1; i >= 0; --i )
+            atLeast += hogouts[i];
+        for( int i = 0; i < hogouts.length && atLeast != 0; ++i ) {
+            out.printf( "[%d]: %d\n", i, atLeast );
+            atLeast -= hogouts[i];
+        }
+    }
+}
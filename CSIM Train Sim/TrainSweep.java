@@ -0,0 +1,241 @@
+package com.trainsim;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Runs a design of experiments over the generated train values and the
+// yard. Every design point is simulated -reps times on the event calendar
+// engine, spread over a pool of worker threads, and every replication is
+// a row of one CSV table. Replication r of each point draws from the same
+// random streams as replication r of every other point and of
+// "TrainSim -e heap -seed <seed>", so the points are compared on common
+// random numbers. A parameter is given as
+//   name=v            a fixed value
+//   name=v1,v2,...    grid levels
+//   name=lo:hi:n      n grid levels evenly spaced from lo to hi
+//   name=lo~hi        a range sampled by the -lhs Latin hypercube
+// and the design is every combination of the grid levels, each with every
+// Latin hypercube sample. The parameters are arrival, unloadA, unloadB,
+// crewA, crewB, replaceA, replaceB, docks and crews.
+// Usage: TrainSweep [-t <threads>] [-seed <seed>] [-reps <n>] [-time <hours>]
+//        [-policy first|shortest|crew] [-lhs <samples>] [-o <csv file>] <name=spec> ...
+public class TrainSweep {
+    private static final String[] PARAMS = { "arrival", "unloadA", "unloadB", "crewA",
+        "crewB", "replaceA", "replaceB", "docks", "crews" };
+    private static final double[] DEFAULTS = { 10.0, TrainSimUtil.UNLOAD_A,
+        TrainSimUtil.UNLOAD_B, TrainSimUtil.CREW_A, TrainSimUtil.CREW_B,
+        TrainSimUtil.REPLACE_A, TrainSimUtil.REPLACE_B, 1, 0 };
+    private static final int DOCKS = 7; // Index of the docks parameter
+    private static final int CREWS = 8; // Index of the crews parameter
+    private static final String COLUMNS = "point,rep,arrival,unloadA,unloadB,crewA,crewB,"
+        + "replaceA,replaceB,docks,crews,trains,time_in_system,time_in_system_p95,"
+        + "time_in_system_max,time_in_queue,dock_idle_pct,dock_busy_pct,dock_hogged_pct,"
+        + "max_queue,crew_wait";
+    private static final PrintStream nowhere =
+        new PrintStream( OutputStream.nullOutputStream() ); // Swallows the sims' output
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.nanoTime();
+        int reps = 5;
+        double simTime = 72000.0;
+        Yard.Policy policy = Yard.Policy.FIRST;
+        int lhs = 0;
+        String file = "sweep.csv";
+        double[][] levels = new double[PARAMS.length][]; // Grid levels of each parameter
+        double[][] ranges = new double[PARAMS.length][]; // Latin hypercube lo and hi
+        for( int p = 0; p < PARAMS.length; ++p )
+            levels[p] = new double[] { DEFAULTS[p] };
+        try {
+            for( int i = 0; i < args.length; ++i ) {
+                if( args[i].equals( "-t" ) && i + 1 < args.length )
+                    threads = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-seed" ) && i + 1 < args.length )
+                    seed = Long.parseLong( args[++i] );
+                else if( args[i].equals( "-reps" ) && i + 1 < args.length )
+                    reps = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-time" ) && i + 1 < args.length )
+                    simTime = Double.parseDouble( args[++i] );
+                else if( args[i].equals( "-policy" ) && i + 1 < args.length )
+                    policy = Yard.Policy.valueOf( args[++i].toUpperCase() );
+                else if( args[i].equals( "-lhs" ) && i + 1 < args.length )
+                    lhs = Integer.parseInt( args[++i] );
+                else if( args[i].equals( "-o" ) && i + 1 < args.length )
+                    file = args[++i];
+                else
+                    parseSpec( args[i], levels, ranges );
+            }
+            for( double[] r : ranges )
+                if( r != null && lhs < 1 )
+                    throw new IllegalArgumentException( "a lo~hi range needs -lhs <samples>" );
+        } catch( IllegalArgumentException e ) {
+            System.out.println( e.getMessage() );
+            System.out.println( "Usage: TrainSweep [-t <threads>] [-seed <seed>] [-reps <n>] "
+                + "[-time <hours>] [-policy first|shortest|crew] [-lhs <samples>] "
+                + "[-o <csv file>] <name=spec> ..." );
+            return;
+        }
+        List<double[]> points = design( levels, ranges, lhs, seed );
+        long start = System.nanoTime();
+        int rows = sweep( points, reps, seed, simTime, policy, threads, file );
+        System.out.printf( "Wrote %d rows for %d design points to %s in %.1fs\n", rows,
+            points.size(), file, (System.nanoTime() - start) / 1e9 );
+    }
+
+    // Add the levels or range of one name=spec argument
+    private static void parseSpec( String arg, double[][] levels, double[][] ranges ) {
+        int eq = arg.indexOf( '=' );
+        int p = eq > 0 ? indexOf( arg.substring( 0, eq ) ) : -1;
+        if( p < 0 )
+            throw new IllegalArgumentException( "Not a parameter: " + arg );
+        String spec = arg.substring( eq + 1 );
+        ranges[p] = null;
+        if( spec.contains( "~" ) ) {
+            String[] lohi = spec.split( "~" );
+            ranges[p] = new double[] { Double.parseDouble( lohi[0] ), Double.parseDouble( lohi[1] ) };
+            levels[p] = new double[] { Double.NaN };
+        }
+        else if( spec.contains( ":" ) ) {
+            String[] grid = spec.split( ":" );
+            double lo = Double.parseDouble( grid[0] );
+            double hi = Double.parseDouble( grid[1] );
+            int n = Integer.parseInt( grid[2] );
+            if( n < 2 )
+                throw new IllegalArgumentException( "A lo:hi:n grid needs n >= 2: " + arg );
+            levels[p] = new double[n];
+            for( int i = 0; i < n; ++i )
+                levels[p][i] = lo + (hi - lo) * i / (n - 1);
+        }
+        else {
+            String[] values = spec.split( "," );
+            levels[p] = new double[values.length];
+            for( int i = 0; i < values.length; ++i )
+                levels[p][i] = Double.parseDouble( values[i] );
+        }
+    }
+
+    private static int indexOf( String name ) {
+        for( int p = 0; p < PARAMS.length; ++p )
+            if( PARAMS[p].equals( name ) ) return p;
+        return -1;
+    }
+
+    // Every combination of the grid levels, each with every Latin hypercube
+    // sample of the ranges: each range is cut into 'lhs' strata and every
+    // stratum is used by exactly one sample, in a random order per range
+    private static List<double[]> design( double[][] levels, double[][] ranges, int lhs,
+            long seed ) {
+        int samples = 1;
+        for( double[] r : ranges )
+            if( r != null ) samples = lhs;
+        double[][] sampled = new double[PARAMS.length][];
+        // A stream of its own, apart from the replications' streams
+        RandomStream rand = new RandomStream( RandomStream.mix( seed ) );
+        for( int p = 0; p < PARAMS.length; ++p ) {
+            if( ranges[p] == null ) continue;
+            sampled[p] = new double[lhs];
+            int[] strata = new int[lhs];
+            for( int i = 0; i < lhs; ++i )
+                strata[i] = i;
+            // Fisher-Yates shuffle of the strata
+            for( int i = lhs - 1; i > 0; --i ) {
+                int j = Math.min( i, (int) (rand.nextDouble() * (i + 1)) );
+                int swap = strata[i];
+                strata[i] = strata[j];
+                strata[j] = swap;
+            }
+            double lo = ranges[p][0];
+            double hi = ranges[p][1];
+            for( int i = 0; i < lhs; ++i )
+                sampled[p][i] = lo + (hi - lo) * (strata[i] + rand.nextDouble()) / lhs;
+        }
+        List<double[]> points = new ArrayList<double[]>();
+        int[] at = new int[PARAMS.length]; // Level of each parameter, an odometer
+        while( true ) {
+            for( int s = 0; s < samples; ++s ) {
+                double[] point = new double[PARAMS.length];
+                for( int p = 0; p < PARAMS.length; ++p )
+                    point[p] = sampled[p] != null ? sampled[p][s] : levels[p][at[p]];
+                point[DOCKS] = Math.max( 1, Math.round( point[DOCKS] ) );
+                point[CREWS] = Math.max( 0, Math.round( point[CREWS] ) );
+                points.add( point );
+            }
+            int p = PARAMS.length - 1;
+            while( p >= 0 && ++at[p] == levels[p].length )
+                at[p--] = 0;
+            if( p < 0 ) break;
+        }
+        return points;
+    }
+
+    // Run every replication of every point and write their rows to 'file'
+    // in order, with no more than a few rows per thread held back
+    // Return the number of rows
+    private static int sweep( List<double[]> points, int reps, long seed,
+            final double simTime, final Yard.Policy policy, int threads, String file )
+            throws IOException, InterruptedException {
+        final RandomStreams streams = new RandomStreams( seed );
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+        int total = points.size() * reps;
+        int submitted = 0;
+        int written = 0;
+        PrintWriter csv = new PrintWriter( new BufferedWriter( new FileWriter( file ), 1 << 16 ) );
+        try {
+            csv.println( COLUMNS );
+            while( written < total ) {
+                while( submitted < total && pending.size() < 4 * threads ) {
+                    final int point = submitted / reps;
+                    final int rep = submitted % reps;
+                    final double[] values = points.get( point );
+                    pending.add( pool.submit( new Callable<String>() {
+                        public String call() throws IOException {
+                            return row( point, rep, values, streams.replication( rep ),
+                                simTime, policy );
+                        }
+                    } ) );
+                    submitted++;
+                }
+                csv.println( pending.poll().get() );
+                written++;
+            }
+        } catch( ExecutionException e ) {
+            throw new IOException( "Sweep failed: " + e.getCause().getMessage(), e.getCause() );
+        } finally {
+            pool.shutdownNow();
+            csv.close();
+        }
+        return written;
+    }
+
+    // Simulate one replication of a design point and return its CSV row
+    private static String row( int point, int rep, double[] v, RandomStream[] streams,
+            double simTime, Yard.Policy policy ) throws IOException {
+        TrainSimUtil util = new TrainSimUtil( v[0], v[1], v[2], v[3], v[4], v[5], v[6], streams );
+        EventSim sim = new EventSim( nowhere, TraceSink.NONE, util, simTime, false,
+            (int) v[DOCKS], policy, (int) v[CREWS], null );
+        TrainStats s = sim.run();
+        double dockTime = sim.clock() * v[DOCKS];
+        StringBuilder b = new StringBuilder( 256 );
+        b.append( point ).append( ',' ).append( rep );
+        for( int p = 0; p < DOCKS; ++p )
+            b.append( ',' ).append( v[p] );
+        b.append( ',' ).append( (int) v[DOCKS] ).append( ',' ).append( (int) v[CREWS] );
+        b.append( ',' ).append( s.timeIn.count() );
+        b.append( ',' ).append( s.timeIn.mean() );
+        b.append( ',' ).append( s.timeInQuantiles.quantile( .95 ) );
+        b.append( ',' ).append( s.timeIn.max() );
+        b.append( ',' ).append( s.timeInQ.mean() );
+        b.append( ',' ).append( s.idle.sum() / dockTime * 100 );
+        b.append( ',' ).append( s.busy.sum() / dockTime * 100 );
+        b.append( ',' ).append( s.hogged.sum() / dockTime * 100 );
+        b.append( ',' ).append( s.maxQ() );
+        b.append( ',' );
+        if( s.crewWait.count() > 0 )
+            b.append( s.crewWait.mean() );
+        return b.toString();
+    }
+}
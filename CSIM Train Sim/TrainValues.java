@@ -0,0 +1,25 @@
+package com.trainsim;
+
+// A batch of train values kept as one primitive array per field, filled by
+// TrainSimUtil and read back by index so no value is ever boxed
+class TrainValues implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    final double[] arrival; // Arrival (or inter-arrival) time of each train
+    final double[] unload; // Unloading time of each train
+    final double[] crewHours; // Crews remaining hours of each train
+    int count; // Number of trains filled in
+
+    /*
+    Parameter(1): Max number of trains the batch holds
+    */
+    TrainValues( int capacity ) {
+        arrival = new double[capacity];
+        unload = new double[capacity];
+        crewHours = new double[capacity];
+        count = 0;
+    }
+
+    int capacity() {
+        return arrival.length;
+    }
+}
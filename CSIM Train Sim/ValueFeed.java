@@ -0,0 +1,228 @@
+package com.trainsim;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Reads a schedule or travel times file on its own thread into a ring of
+// batches, a bounded number of rows ahead of the simulation, so the file
+// is inflated and parsed while the sim runs instead of in its arrivals and
+// crews. Every row is checked on the way in: its values must be finite and
+// not negative, a schedule's arrivals must not go back in time and a gap
+// between two arrivals longer than the one allowed is reported. A bad row
+// ends the feed, and the sim gets the error when it reaches that row.
+class ValueFeed implements ValueReader {
+    private static final int BATCHES = 8; // Batches in the ring
+    private static final int ROWS = 4096; // Rows per batch
+    private static final int MAX_WARNINGS = 5; // Gaps reported one by one
+    private final ValueReader reader; // The file, read by 'thread' once started
+    private final String name; // The file, for the messages
+    private final int columns; // Values per row, 3 for a schedule
+    private final double maxGap; // Longest gap between arrivals allowed, 0 for any
+    private final PrintStream warnings; // Where gaps are reported, null for nowhere
+    private final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>( BATCHES + 1 );
+    private final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>( BATCHES );
+    private Thread thread = null; // Started by the first read
+    private Batch batch = null; // Batch being read by the sim
+    private int cursor = 0; // Index of the next value in 'batch'
+    private long consumed = 0; // Values read by the sim
+    private long skip = 0; // Values to pass over before the first batch
+    private volatile boolean closed = false;
+    /* CHECKS, made on 'thread' and read once it is done */
+    private long rows = 0; // Rows read
+    private double last = 0.0; // Latest arrival
+    private double longestGap = 0.0; // Longest time between two arrivals
+    private double longestAfter = 0.0; // Arrival the longest gap came after
+    private long gaps = 0; // Gaps longer than 'maxGap'
+    /* END */
+
+    // A batch of rows, or the end of the file with the error that ended it
+    private static final class Batch {
+        final double[] values;
+        int count = 0; // Values filled in
+        boolean last = false; // No batch follows this one
+        IOException error = null; // Why the file ended early, null at its end
+        Batch( int size ) {
+            values = new double[size];
+        }
+    }
+
+    /*
+    Parameter(1): The opened file, owned by the feed from here on
+    Parameter(2): Name of the file, for the messages
+    Parameter(3): Values per row, 3 for a schedule and 1 for travel times
+    Parameter(4): Longest gap between two arrivals allowed, 0 to allow any
+    Parameter(5): Where gaps and the closing summary go, null to say nothing
+    */
+    ValueFeed( ValueReader reader, String name, int columns, double maxGap,
+            PrintStream warnings ) {
+        this.reader = reader;
+        this.name = name;
+        this.columns = columns;
+        this.maxGap = maxGap;
+        this.warnings = warnings;
+        for( int i = 0; i < BATCHES; ++i )
+            free.add( new Batch( ROWS * columns ) );
+    }
+
+    // Return the next value in the file, NaN once it is read
+    public double next() throws IOException {
+        if( batch == null || cursor == batch.count ) {
+            if( !take() )
+                return Double.NaN;
+        }
+        consumed++;
+        return batch.values[cursor++];
+    }
+
+    // Move to the next full batch, giving the read one back to the thread
+    // Return false at the end of the file, throw if a bad row ended it
+    private boolean take() throws IOException {
+        if( thread == null )
+            start();
+        try {
+            while( batch == null || cursor == batch.count ) {
+                if( batch != null ) {
+                    if( batch.last ) {
+                        if( batch.error != null )
+                            throw new IOException( batch.error.getMessage(), batch.error );
+                        return false;
+                    }
+                    batch.count = 0;
+                    free.put( batch );
+                }
+                batch = full.take();
+                cursor = 0;
+            }
+            return true;
+        } catch( InterruptedException e ) {
+            throw new InterruptedIOException( "Interrupted reading " + name );
+        }
+    }
+
+    private void start() {
+        thread = new Thread( new Runnable() {
+            public void run() {
+                produce();
+            }
+        }, "Feed of " + name );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    // Body of 'thread': parse and check batches until the file or the ring is closed
+    private void produce() {
+        Batch b = null;
+        try {
+            for( ; skip > 0; --skip )
+                if( Double.isNaN( reader.next() ) )
+                    throw new IOException( name + " ends before the checkpoint" );
+            while( true ) {
+                b = free.take();
+                if( !parse( b ) ) {
+                    b.last = true;
+                    full.put( b );
+                    return;
+                }
+                full.put( b );
+                b = null;
+            }
+        } catch( InterruptedException e ) {
+            // Closed, the rows left are not needed
+        } catch( IOException e ) {
+            if( closed )
+                return;
+            if( b == null )
+                b = new Batch( 0 );
+            b.last = true;
+            b.error = e;
+            full.add( b );
+        }
+    }
+
+    // Fill 'b' with checked rows, return false if the file ended in it
+    // A bad row is left out of 'b', the sim gets the rows before it
+    private boolean parse( Batch b ) throws IOException {
+        double[] v = b.values;
+        while( b.count < v.length ) {
+            int start = b.count;
+            try {
+                for( int c = 0; c < columns; ++c ) {
+                    double x = reader.next();
+                    if( Double.isNaN( x ) ) {
+                        if( c > 0 )
+                            throw new IOException( name + " row " + (rows + 1) + " has "
+                                + c + " of its " + columns + " values" );
+                        return false;
+                    }
+                    if( Double.isInfinite( x ) || x < 0 )
+                        throw new IOException( name + " row " + (rows + 1) + " value "
+                            + (c + 1) + " is " + x );
+                    v[b.count++] = x;
+                }
+                if( columns == 3 )
+                    checkArrival( v[start], rows + 1 );
+            } catch( IOException e ) {
+                b.count = start;
+                throw e;
+            }
+            rows++;
+        }
+        return true;
+    }
+
+    // Check that the schedule's arrivals run forward with no long gaps
+    private void checkArrival( double arrival, long row ) throws IOException {
+        if( arrival < last )
+            throw new IOException( String.format( "%s row %d arrives at %.4fh, before "
+                + "the %.4fh of the row before it", name, row, arrival, last ) );
+        double gap = arrival - last;
+        if( gap > longestGap ) {
+            longestGap = gap;
+            longestAfter = last;
+        }
+        if( maxGap > 0 && gap > maxGap ) {
+            if( warnings != null && gaps < MAX_WARNINGS )
+                warnings.printf( "%s row %d: no arrival for %.2fh after %.2fh\n",
+                    name, row, gap, last );
+            gaps++;
+        }
+        last = arrival;
+    }
+
+    // Values the sim read, for seek() to come back to
+    public long position() {
+        return consumed;
+    }
+
+    // Skip to a position() of a feed of the same file, before the first read
+    public void seek( long position ) throws IOException {
+        if( thread != null )
+            throw new IOException( "Cannot seek " + name + " once it is read" );
+        skip = position;
+        consumed = position;
+    }
+
+    // Stop the thread, close the file and sum up the schedule's checks
+    public void close() throws IOException {
+        if( closed )
+            return;
+        closed = true;
+        if( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch( InterruptedException e ) {
+                throw new InterruptedIOException( "Interrupted closing " + name );
+            }
+        }
+        reader.close();
+        if( warnings != null && columns == 3 && rows > 0 ) {
+            warnings.printf( "%s: %d trains checked, longest gap %.2fh after %.2fh", name,
+                rows, longestGap, longestAfter );
+            if( maxGap > 0 )
+                warnings.printf( ", %d over %.2fh", gaps, maxGap );
+            warnings.println( "" );
+        }
+    }
+}
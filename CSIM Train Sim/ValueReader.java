@@ -0,0 +1,16 @@
+package com.trainsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// A file of doubles read one value at a time, in the order they appear
+interface ValueReader extends Closeable {
+    // Return the next value in the file, NaN if the file is empty
+    double next() throws IOException;
+
+    // Return where the reader is, for seek() to come back to
+    long position() throws IOException;
+
+    // Go back to a position() of a reader of the same file
+    void seek( long position ) throws IOException;
+}
@@ -0,0 +1,214 @@
+package com.trainsim;
+
+import java.io.PrintStream;
+
+// Estimate of the mean time in system across replications, made more
+// precise than the plain mean of their estimates in two ways that can be
+// used alone or together:
+//   antithetic        replications come in pairs, the second drawing the
+//                     antithetics of the first's numbers, and each pair's
+//                     average is one observation
+//   control variates  each observation is corrected by how far the means of
+//                     the first inter-arrival, unload and crew hours its
+//                     replication drew fell from their known means, with the
+//                     coefficients of the least squares regression of the
+//                     estimates on them. As many are drawn as the run expects
+//                     trains, however many arrive, so the known means are
+//                     exact and the correction leaves the estimate unbiased
+// The interval of the result is set against the plain interval the same
+// replications would give, as the factor the variance was reduced by, and
+// the two intervals are checked to overlap.
+class VarianceReduction implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int CONTROLS = 3; // Inter-arrival, unload and crew hours
+    private final boolean antithetic;
+    private final boolean controls;
+    private final double[] mu; // Known mean of each control
+    private double[] y = new double[16]; // Estimate of each replication
+    private double[][] x = new double[16][]; // Controls of each replication
+    private int n = 0; // Replications recorded
+
+    /*
+    Parameter(1): True if replications 2k and 2k+1 are antithetic pairs
+    Parameter(2): True to correct with the control variates
+    Parameter(3): Known means of the inter-arrival, unload and crew hours
+    */
+    VarianceReduction( boolean antithetic, boolean controls, double[] mu ) {
+        this.antithetic = antithetic;
+        this.controls = controls;
+        this.mu = mu.clone();
+    }
+
+    // The known means of the controls of values generated from these ranges
+    static double[] means( double arrival, double unloadA, double unloadB,
+            double crewA, double crewB ) {
+        return new double[] { arrival, (unloadA + unloadB) / 2, (crewA + crewB) / 2 };
+    }
+
+    // Record the next replication's estimate and the means of its controls,
+    // from TrainStats.controls()
+    void record( double estimate, double[] control ) {
+        if( controls && control == null )
+            throw new IllegalArgumentException( "record: the replication has no controls" );
+        if( n == y.length ) {
+            y = java.util.Arrays.copyOf( y, 2 * n );
+            x = java.util.Arrays.copyOf( x, 2 * n );
+        }
+        y[n] = estimate;
+        x[n++] = control != null ? control.clone() : null;
+    }
+
+    // Observations the estimate is made of: pairs, or replications
+    int observations() {
+        return antithetic ? n / 2 : n;
+    }
+
+    // The estimate and the variance of it, NaN and infinity with too few observations
+    private double[] estimate() {
+        int m = observations();
+        int p = controls ? CONTROLS + 1 : 1; // Coefficients fitted
+        if( m <= p )
+            return new double[] { m > 0 ? plain()[0] : Double.NaN, Double.POSITIVE_INFINITY, 1 };
+        // Rows of the regression: 1 and the controls less their means
+        double[][] ztz = new double[p][p];
+        double[] zty = new double[p];
+        double[][] z = new double[m][p];
+        double[] obs = new double[m];
+        for( int i = 0; i < m; ++i ) {
+            obs[i] = antithetic ? (y[2 * i] + y[2 * i + 1]) / 2 : y[i];
+            z[i][0] = 1.0;
+            for( int c = 1; c < p; ++c ) {
+                double xc = antithetic ? (x[2 * i][c - 1] + x[2 * i + 1][c - 1]) / 2 : x[i][c - 1];
+                z[i][c] = xc - mu[c - 1];
+            }
+            for( int a = 0; a < p; ++a ) {
+                zty[a] += z[i][a] * obs[i];
+                for( int b = 0; b < p; ++b )
+                    ztz[a][b] += z[i][a] * z[i][b];
+            }
+        }
+        double[] beta = solve( ztz, zty );
+        double[] e0 = new double[p];
+        e0[0] = 1.0;
+        double[] inv = solve( ztz, e0 ); // First column of the inverse of Z'Z
+        if( beta == null || inv == null )
+            return new double[] { Double.NaN, Double.POSITIVE_INFINITY, 1 };
+        double sse = 0.0;
+        for( int i = 0; i < m; ++i ) {
+            double fit = 0.0;
+            for( int a = 0; a < p; ++a )
+                fit += z[i][a] * beta[a];
+            sse += (obs[i] - fit) * (obs[i] - fit);
+        }
+        int df = m - p;
+        return new double[] { beta[0], sse / df * inv[0], df };
+    }
+
+    // Plain mean of the replications recorded, and the variance of it
+    private double[] plain() {
+        int reps = antithetic ? 2 * observations() : n;
+        Accumulator a = new Accumulator();
+        for( int i = 0; i < reps; ++i )
+            a.record( y[i] );
+        return new double[] { a.mean(), a.variance() / reps, reps - 1 };
+    }
+
+    double mean() {
+        return estimate()[0];
+    }
+
+    // Half-width of the 'confidence' interval of mean()
+    double halfWidth( double confidence ) {
+        return halfWidth( estimate(), confidence );
+    }
+
+    private static double halfWidth( double[] e, double confidence ) {
+        if( Double.isInfinite( e[1] ) || e[2] < 1 )
+            return Double.POSITIVE_INFINITY;
+        return StudentT.quantile( (1 + confidence) / 2, (int) e[2] ) * Math.sqrt( e[1] );
+    }
+
+    // Variance of the plain mean over that of the estimate, NaN while
+    // either is unknown
+    double reduction() {
+        return reduction( plain(), estimate() );
+    }
+
+    private static double reduction( double[] p, double[] e ) {
+        double r = p[1] / e[1];
+        return Double.isInfinite( e[1] ) || Double.isInfinite( r ) ? Double.NaN : r;
+    }
+
+    // True unless the 'confidence' intervals of the estimate and of the
+    // plain mean are apart, which the estimate should never be but by bias
+    boolean agrees( double confidence ) {
+        return agrees( estimate(), plain(), confidence );
+    }
+
+    private static boolean agrees( double[] e, double[] p, double confidence ) {
+        double apart = Math.abs( e[0] - p[0] );
+        return !(apart > halfWidth( e, confidence ) + halfWidth( p, confidence ));
+    }
+
+    // 'hours' as printed in an interval, n/a if there is no interval
+    private static String hours( double hours ) {
+        return Double.isInfinite( hours ) || Double.isNaN( hours ) ? "n/a"
+            : String.format( "%.4fh", hours );
+    }
+
+    // Print the estimate, its interval and the plain one
+    void print( PrintStream out, double confidence ) {
+        double[] e = estimate();
+        double[] p = plain();
+        String how = antithetic && controls ? "antithetic pairs and control variates"
+            : antithetic ? "antithetic pairs" : "control variates";
+        out.println("");
+        out.printf( "Variance reduced with %s over %d %s\n", how, observations(),
+            antithetic ? "pairs" : "simulations" );
+        out.printf( "Time-in-system: %.4fh +- %s (%.0f%% interval), plain %.4fh +- %s\n",
+            e[0], hours( halfWidth( e, confidence ) ), confidence * 100, p[0],
+            hours( halfWidth( p, confidence ) ) );
+        double r = reduction( p, e );
+        if( Double.isNaN( r ) )
+            out.println( "Variance reduced n/a, too few observations" );
+        else
+            out.printf( "Variance reduced %.2fx, as many simulations as %.0f plain ones\n",
+                r, r * (antithetic ? 2 * observations() : n) );
+        if( !agrees( e, p, confidence ) )
+            out.println( "Warning: the reduced and plain intervals do not overlap, "
+                + "the reduced estimate may be biased" );
+    }
+
+    // Solve a x = b by Gaussian elimination with partial pivoting, null if
+    // 'a' is singular. 'a' and 'b' are left as they were
+    private static double[] solve( double[][] a, double[] b ) {
+        int p = b.length;
+        double[][] m = new double[p][];
+        for( int i = 0; i < p; ++i ) {
+            m[i] = java.util.Arrays.copyOf( a[i], p + 1 );
+            m[i][p] = b[i];
+        }
+        for( int c = 0; c < p; ++c ) {
+            int pivot = c;
+            for( int r = c + 1; r < p; ++r )
+                if( Math.abs( m[r][c] ) > Math.abs( m[pivot][c] ) ) pivot = r;
+            if( Math.abs( m[pivot][c] ) < 1e-300 ) return null;
+            double[] swap = m[c];
+            m[c] = m[pivot];
+            m[pivot] = swap;
+            for( int r = c + 1; r < p; ++r ) {
+                double f = m[r][c] / m[c][c];
+                for( int k = c; k <= p; ++k )
+                    m[r][k] -= f * m[c][k];
+            }
+        }
+        double[] s = new double[p];
+        for( int r = p - 1; r >= 0; --r ) {
+            double v = m[r][p];
+            for( int k = r + 1; k < p; ++k )
+                v -= m[r][k] * s[k];
+            s[r] = v / m[r][r];
+        }
+        return s;
+    }
+}
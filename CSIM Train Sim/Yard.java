@@ -0,0 +1,245 @@
+package com.trainsim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// The unloading docks of the yard and the trains waiting for them, shared
+// by both engines in place of a CSIM facility. How a train gets a dock
+// depends on the policy:
+//   FIRST     one queue, the first train in it takes the lowest free dock
+//   SHORTEST  a queue per dock, an arriving train joins the dock with the
+//             fewest trains at it
+//   CREW      one queue, a free dock goes to the waiting train whose crew
+//             hogs out last, so it is the most likely to unload in time
+// Docks and waiting trains are kept in heaps, so every arrival and
+// departure costs O(log N) however many docks there are.
+class Yard<T> implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    enum Policy { FIRST, SHORTEST, CREW }
+
+    // A train's place in the yard
+    static final class Ticket<T> implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        final T train;
+        private final long order; // Arrival order, breaks ties
+        private double key; // Time the train's crew hogs out, for CREW
+        private int pos = -1; // Index in the waiting heap, -1 if not in it
+        private int dock = -1; // Dock the train holds, -1 while waiting
+        private Ticket( T train, long order, double key ) {
+            this.train = train;
+            this.order = order;
+            this.key = key;
+        }
+        // Dock the train holds, -1 while it waits for one
+        int dock() {
+            return dock;
+        }
+    }
+
+    private final Policy policy;
+    private final int[] load; // Trains holding or (SHORTEST) queued for each dock
+    private final int[] docks; // Heap of the docks by load, then number
+    private final int[] place; // Index of each dock in 'docks'
+    private Ticket<T>[] waiting; // Heap of the waiting trains (FIRST, CREW)
+    private int nWaiting = 0;
+    private final ArrayList<ArrayDeque<Ticket<T>>> queues; // Queue of each dock (SHORTEST)
+    private int queued = 0; // Trains waiting for a dock
+    private int trains = 0; // Trains waiting for or holding a dock
+    private long next = 0; // Order of the next arrival
+
+    /*
+    Parameter(1): Number of docks
+    Parameter(2): How trains are given docks
+    */
+    Yard( int nDocks, Policy policy ) {
+        if( nDocks < 1 )
+            throw new IllegalArgumentException( "Yard: needs at least one dock" );
+        this.policy = policy;
+        load = new int[nDocks];
+        docks = new int[nDocks];
+        place = new int[nDocks];
+        for( int d = 0; d < nDocks; ++d ) {
+            docks[d] = d;
+            place[d] = d;
+        }
+        if( policy == Policy.SHORTEST ) {
+            queues = new ArrayList<ArrayDeque<Ticket<T>>>( nDocks );
+            for( int d = 0; d < nDocks; ++d )
+                queues.add( new ArrayDeque<Ticket<T>>() );
+        }
+        else {
+            queues = null;
+            waiting = tickets( 16 );
+        }
+    }
+
+    int docks() {
+        return load.length;
+    }
+
+    // Trains waiting for a dock
+    int queued() {
+        return queued;
+    }
+
+    // Trains waiting for or holding a dock
+    int trains() {
+        return trains;
+    }
+
+    // 'train' arrives with a crew that hogs out at time 'key'
+    // Return its ticket, holding a dock if one was free for it
+    Ticket<T> arrive( T train, double key ) {
+        Ticket<T> t = new Ticket<T>( train, next++, key );
+        trains++;
+        int d = docks[0];
+        if( policy == Policy.SHORTEST ) {
+            changeLoad( d, 1 );
+            if( load[d] == 1 ) {
+                t.dock = d;
+            }
+            else {
+                queues.get( d ).add( t );
+                queued++;
+            }
+        }
+        else if( load[d] == 0 ) {
+            changeLoad( d, 1 );
+            t.dock = d;
+        }
+        else {
+            push( t );
+            queued++;
+        }
+        return t;
+    }
+
+    // The train at 'dock' leaves it
+    // Return the ticket of the train that now holds the dock, null if none
+    Ticket<T> depart( int dock ) {
+        Ticket<T> t;
+        trains--;
+        if( policy == Policy.SHORTEST ) {
+            changeLoad( dock, -1 );
+            t = queues.get( dock ).poll();
+        }
+        else {
+            t = nWaiting > 0 ? pop() : null;
+            if( t == null )
+                changeLoad( dock, -1 );
+        }
+        if( t != null ) {
+            t.dock = dock;
+            queued--;
+        }
+        return t;
+    }
+
+    // The crew of a train changed, it now hogs out at time 'key'
+    void rekey( Ticket<T> t, double key ) {
+        t.key = key;
+        if( policy == Policy.CREW && t.pos >= 0 ) {
+            siftUp( t.pos );
+            siftDown( t.pos );
+        }
+    }
+
+    /* DOCK HEAP, ordered by load then dock number */
+    private void changeLoad( int d, int change ) {
+        load[d] += change;
+        int i = place[d];
+        // Sift up
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            if( !lighter( d, docks[parent] ) ) break;
+            setDock( i, docks[parent] );
+            i = parent;
+        }
+        // Sift down
+        while( true ) {
+            int child = 2 * i + 1;
+            if( child >= docks.length ) break;
+            if( child + 1 < docks.length && lighter( docks[child + 1], docks[child] ) )
+                child++;
+            if( !lighter( docks[child], d ) ) break;
+            setDock( i, docks[child] );
+            i = child;
+        }
+        setDock( i, d );
+    }
+
+    private boolean lighter( int a, int b ) {
+        return load[a] < load[b] || (load[a] == load[b] && a < b);
+    }
+
+    private void setDock( int i, int d ) {
+        docks[i] = d;
+        place[d] = i;
+    }
+
+    /* WAITING HEAP, first in order for FIRST, latest hogout first for CREW */
+    private void push( Ticket<T> t ) {
+        if( nWaiting == waiting.length )
+            waiting = java.util.Arrays.copyOf( waiting, 2 * nWaiting );
+        waiting[nWaiting] = t;
+        t.pos = nWaiting++;
+        siftUp( t.pos );
+    }
+
+    // Java can't make an array of a generic type, this one only ever holds
+    // tickets of this yard
+    @SuppressWarnings( "unchecked" )
+    private static <T> Ticket<T>[] tickets( int n ) {
+        return (Ticket<T>[]) new Ticket<?>[n];
+    }
+
+    private Ticket<T> pop() {
+        Ticket<T> first = waiting[0];
+        first.pos = -1;
+        Ticket<T> last = waiting[--nWaiting];
+        waiting[nWaiting] = null;
+        if( nWaiting > 0 ) {
+            waiting[0] = last;
+            last.pos = 0;
+            siftDown( 0 );
+        }
+        return first;
+    }
+
+    private boolean before( Ticket<T> a, Ticket<T> b ) {
+        if( policy == Policy.CREW && a.key != b.key )
+            return a.key > b.key;
+        return a.order < b.order;
+    }
+
+    private void siftUp( int i ) {
+        Ticket<T> t = waiting[i];
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            if( !before( t, waiting[parent] ) ) break;
+            setWaiting( i, waiting[parent] );
+            i = parent;
+        }
+        setWaiting( i, t );
+    }
+
+    private void siftDown( int i ) {
+        Ticket<T> t = waiting[i];
+        while( true ) {
+            int child = 2 * i + 1;
+            if( child >= nWaiting ) break;
+            if( child + 1 < nWaiting && before( waiting[child + 1], waiting[child] ) )
+                child++;
+            if( !before( waiting[child], t ) ) break;
+            setWaiting( i, waiting[child] );
+            i = child;
+        }
+        setWaiting( i, t );
+    }
+
+    private void setWaiting( int i, Ticket<T> t ) {
+        waiting[i] = t;
+        t.pos = i;
+    }
+    /* END */
+}